@@ -0,0 +1,347 @@
+import java.util.*;
+
+// Looks several moves ahead for two players by negamax search with
+// alpha-beta pruning, scoring the positions at the search horizon with
+// an Evaluator.
+//
+// At each node the candidate moves are the empty cells next to an
+// element, ordered by the one-move score Evaluator.moveDelta() gives
+// them, and only the best width of them are searched. A move which
+// gives the mover a run of winLength ends the game and scores WIN
+// less the number of moves taken to reach it, so quicker wins score
+// higher. Scores are from the point of view of the player to move and
+// are fail-hard: a search with window alpha..beta returns a value in
+// that range, which is exact only when strictly inside it.
+//
+// The root of a search is split into one search per root move by
+// searchMove() so the moves can be searched in separate threads or
+// processes (see SearchCoordinator). Each searchMove() keeps reading a
+// shared root bound, raised by raiseBound() as better root moves are
+// found elsewhere, and narrows its window with it, so other searches'
+// results cut work that is already under way. An AlphaBetaSearch
+// must only search in one thread at a time.
+//
+// Given an AnalysisCache with setCache(), each node's result is stored
+// in the cache keyed by the exact PositionHash of the position, which
+// is kept up to date as moves are made and taken back. A position
+// met again, by another move order, in a later search or in another
+// process sharing the cache file, is not searched again if the cache
+// holds a result from at least as deep that settles it for the window;
+// otherwise the cached best move is searched first. A result from a
+// deeper search is used as it is, so with a cache that already holds
+// deeper results a search can return a different score, and move,
+// than the same search without the cache. Only with a cache holding
+// no results from deeper searches are the scores the same.
+public class AlphaBetaSearch
+{
+  public static final double WIN = 1e12; //Score of a won position
+  public static final double INFINITY = Double.POSITIVE_INFINITY;
+
+  Evaluator evaluator;
+  int winLength; //Run length which wins the game
+  int width; //Moves searched at each node
+  long nodes; //Nodes visited since creation
+  volatile double rootBound = -INFINITY; //Best root score known so far
+  AnalysisCache cache; //null for none
+  long salt; //Salt of this search's keys in cache
+  long hash; //Exact PositionHash of the board being searched, kept only with a cache
+
+  public AlphaBetaSearch(Evaluator evaluator, int winLength, int width)
+  {
+    this.evaluator = evaluator;
+    this.winLength = winLength;
+    this.width = width;
+  }
+
+  // Best move found for a search, with its score and the nodes visited
+  public static class Result
+  {
+    private int row, col;
+    private double score;
+    private long nodes;
+
+    public Result(int row, int col, double score, long nodes)
+    {
+      this.row = row;
+      this.col = col;
+      this.score = score;
+      this.nodes = nodes;
+    }
+
+    public int getRow()
+    {
+      return row;
+    }
+
+    public int getCol()
+    {
+      return col;
+    }
+
+    public double getScore()
+    {
+      return score;
+    }
+
+    public long getNodes()
+    {
+      return nodes;
+    }
+
+    public String toString()
+    {
+      return "(" + row + "," + col + ") " + score;
+    }
+  }
+
+  // Keep results in cache, or stop if it is null. Searches with
+  // different evaluator weights, width or winLength keep apart.
+  public void setCache(AnalysisCache cache)
+  {
+    this.cache = cache;
+    salt = cache == null ? 0 : AnalysisCache.salt(evaluator, SALT, width, winLength);
+  }
+
+  static final long SALT = 0x4142L; //Marks keys stored by this class
+
+  // Number of nodes visited by all searches made with this object
+  public long getNodes()
+  {
+    return nodes;
+  }
+
+  // Raise the root bound: root moves scoring no more than alpha cannot
+  // be the best, so any searchMove() under way may stop proving
+  // anything beyond that. Safe to call from any thread.
+  public synchronized void raiseBound(double alpha)
+  {
+    if(alpha > rootBound)
+      rootBound = alpha;
+  }
+
+  // Start a new search at the root: forget the root bound
+  public void resetBound()
+  {
+    rootBound = -INFINITY;
+  }
+
+  // Search depth moves ahead from the position on board, player to
+  // move, and return the best move. On an empty board the move is 0,0.
+  // The board is left as it was.
+  //
+  // Complexity: O(W^D * R*C) in the worst case, far less with good
+  // move ordering
+  //   W: width, D: depth
+  public <T> Result search(ExpandableBoard<T> board, T player, T opponent, int depth)
+  {
+    long start = nodes;
+    resetBound();
+    List<int[]> moves = candidates(board, player);
+    if(moves.isEmpty())
+      return new Result(0, 0, evaluator.evaluate(board, player), 0);
+    Result best = null;
+    for(int[] m : moves)
+    {
+      double v = searchMove(board, player, opponent, m[0], m[1], depth, rootBound, INFINITY);
+      if(best == null || v > best.score)
+      {
+        best = new Result(m[0], m[1], v, 0);
+        raiseBound(v);
+      }
+    }
+    return new Result(best.row, best.col, best.score, nodes - start);
+  }
+
+  // Candidate moves for player, best first, at most width of them, as
+  // row/col pairs
+  //
+  // Complexity: O(R*C + K*L + K*log(K))
+  //   K: number of empty cells next to an element
+  public <T> List<int[]> candidates(ExpandableBoard<T> board, T player)
+  {
+    T fill = board.getFillElem();
+    List<int[]> moves = new ArrayList<int[]>();
+    List<Double> order = new ArrayList<Double>();
+    int[] delta = new int[Evaluator.FEATURES];
+    for(int r = board.getMinRow()-1; r <= board.getMaxRow()+1; r++)
+    {
+      for(int c = board.getMinCol()-1; c <= board.getMaxCol()+1; c++)
+      {
+        if(!board.get(r, c).equals(fill) || !hasNeighbour(board, r, c, fill))
+          continue;
+        Arrays.fill(delta, 0);
+        Evaluator.moveDelta(board, player, r, c, delta);
+        moves.add(new int[]{r, c, moves.size()});
+        order.add(evaluator.score(delta));
+      }
+    }
+    moves.sort((a, b) -> Double.compare(order.get(b[2]), order.get(a[2])));
+    return moves.size() > width ? new ArrayList<int[]>(moves.subList(0, width)) : moves;
+  }
+
+  private static <T> boolean hasNeighbour(ExpandableBoard<T> board, int r, int c, T fill)
+  {
+    for(int dr = -1; dr <= 1; dr++)
+    {
+      for(int dc = -1; dc <= 1; dc++)
+      {
+        if((dr != 0 || dc != 0) && !board.get(r+dr, c+dc).equals(fill))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  // Score for player of playing row/col from the position on board and
+  // searching depth-1 further moves, within the window alpha..beta and
+  // the root bound. The board is left as it was.
+  public <T> double searchMove(ExpandableBoard<T> board, T player, T opponent, int row, int col, int depth,
+                               double alpha, double beta)
+  {
+    if(cache != null)
+      hash = PositionHash.plus(PositionHash.exactOf(board), PositionHash.term(row, col, player));
+    board.set(row, col, player);
+    try
+    {
+      nodes++;
+      if(wins(board, row, col, player))
+        return clamp(WIN, alpha, beta);
+      return -negamax(board, opponent, player, depth-1, 1, -beta, -alpha);
+    }
+    finally
+    {
+      board.undoSet();
+    }
+  }
+
+  // Score for toMove of the position on board, ply moves below the root
+  <T> double negamax(ExpandableBoard<T> b, T toMove, T other, int depth, int ply, double alpha, double beta)
+  {
+    //The root player moves at even plies; a result for them at or
+    //below the root bound, or for the opponent at or above its
+    //negation, cannot change the root move
+    double bound = rootBound;
+    if((ply & 1) == 0)
+      alpha = Math.max(alpha, bound);
+    else
+      beta = Math.min(beta, -bound);
+    if(alpha >= beta)
+      return alpha;
+
+    long key = 0;
+    AnalysisCache.Entry cached = null;
+    if(cache != null)
+    {
+      key = AnalysisCache.key(hash, toMove, salt);
+      cached = cache.probe(key);
+      if(cached != null && cached.getDepth() >= depth)
+      {
+        double v = fromCache(cached.getScore(), ply);
+        int flag = cached.getFlag();
+        if(flag == AnalysisCache.EXACT || (flag == AnalysisCache.LOWER && v >= beta)
+           || (flag == AnalysisCache.UPPER && v <= alpha))
+          return clamp(v, alpha, beta);
+      }
+    }
+    if(depth <= 0)
+      return store(key, bound, clamp(-evaluator.evaluate(b, other), alpha, beta), depth, ply, alpha, beta, null);
+
+    List<int[]> moves = candidates(b, toMove);
+    if(moves.isEmpty())
+      return store(key, bound, clamp(-evaluator.evaluate(b, other), alpha, beta), depth, ply, alpha, beta, null);
+    if(cached != null && cached.hasMove())
+    {
+      //Search the cached best move first
+      for(int i = 1; i < moves.size(); i++)
+      {
+        int[] m = moves.get(i);
+        if(m[0] == cached.getRow() && m[1] == cached.getCol())
+        {
+          moves.add(0, moves.remove(i));
+          break;
+        }
+      }
+    }
+    double lower = alpha;
+    int[] best = null;
+    long h = hash;
+    for(int[] m : moves)
+    {
+      b.set(m[0], m[1], toMove);
+      nodes++;
+      double v;
+      if(wins(b, m[0], m[1], toMove))
+        v = WIN - ply;
+      else
+      {
+        if(cache != null)
+          hash = PositionHash.plus(h, PositionHash.term(m[0], m[1], toMove));
+        v = -negamax(b, other, toMove, depth-1, ply+1, -beta, -alpha);
+        hash = h;
+      }
+      b.undoSet();
+      if(v >= beta)
+        return store(key, bound, beta, depth, ply, lower, beta, m);
+      if(v > alpha)
+      {
+        alpha = v;
+        best = m;
+      }
+    }
+    return store(key, bound, alpha, depth, ply, lower, beta, best);
+  }
+
+  // Store v, the fail-hard result of searching a node with window
+  // alpha..beta, in the cache if there is one, and return it. Not
+  // stored if the root bound has changed from bound, its value when the
+  // node was entered: its children may then have been searched with
+  // narrower windows than it gave them, so v need not be the bound it
+  // appears to be.
+  private double store(long key, double bound, double v, int depth, int ply, double alpha, double beta, int[] move)
+  {
+    if(cache != null && bound == rootBound)
+    {
+      int flag = v <= alpha ? AnalysisCache.UPPER : v >= beta ? AnalysisCache.LOWER : AnalysisCache.EXACT;
+      cache.store(key, toCache(v, ply), depth, flag, move != null, move == null ? 0 : move[0], move == null ? 0 : move[1]);
+    }
+    return v;
+  }
+
+  //Win scores count moves from the root; the cache holds them counted
+  //from the position itself, so they hold wherever it is met
+  private static double toCache(double v, int ply)
+  {
+    return v > WIN/2 ? v + ply : v < -WIN/2 ? v - ply : v;
+  }
+
+  private static double fromCache(double v, int ply)
+  {
+    return v > WIN/2 ? v - ply : v < -WIN/2 ? v + ply : v;
+  }
+
+  private static double clamp(double v, double alpha, double beta)
+  {
+    return Math.max(alpha, Math.min(beta, v));
+  }
+
+  // True if the element x just set at row/col is part of a run of at
+  // least winLength
+  //
+  // Complexity: O(winLength)
+  <T> boolean wins(ExpandableBoard<T> board, int row, int col, T x)
+  {
+    for(int d = 0; d < 4; d++)
+    {
+      int dr = Evaluator.DROW[d], dc = Evaluator.DCOL[d];
+      int len = 1;
+      while(len < winLength && board.get(row + len*dr, col + len*dc).equals(x))
+        len++;
+      for(int back = 1; len < winLength && board.get(row - back*dr, col - back*dc).equals(x); back++)
+        len++;
+      if(len >= winLength)
+        return true;
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,275 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+// A transposition table of analysed positions kept in a fixed-size
+// memory-mapped file, so results survive from one run to the next and
+// are shared by every program that opens the same file: the Gomoku
+// hint command, BatchAnalyzer and AlphaBetaSearch. Opening a cache
+// maps the file and nothing more; pages are read in as they are used.
+//
+// Positions are looked up by a 64 bit key built by key() from the
+// position's hash, the player to move and a salt describing how the
+// position was analysed (evaluator weights, search width and so on),
+// so analyses of different kinds share a file without being confused.
+// Each entry holds a score with its search depth and whether it is
+// exact or a lower or upper bound, and optionally a best move.
+//
+// The file is a header followed by a power of two buckets of WAYS
+// entries. A key can only live in the bucket its low bits select.
+// Storing a key replaces an entry for the same key if the new result
+// is at least as deep; otherwise the shallowest entry of the bucket
+// goes, so deep, expensive results are kept longest.
+//
+// Readers and writers take no locks, within a process or across
+// processes sharing the file. Each entry is four longs: a check word
+// then score, meta and move words, and the check word is the key
+// XORed with the other three. Writers store the data words and then
+// the check word with release ordering; a reader which sees a half
+// written or overwritten entry finds the check does not match the key
+// and treats it as a miss.
+//
+// File layout (big-endian):
+//   0     header: magic int, version int, bucket count int
+//   64    buckets, WAYS entries of ENTRY bytes each; an entry is the
+//         check, the score (double bits), meta (valid bit 11, has move
+//         bit 10, flag bits 8-9, depth bits 0-7) and the move (row in
+//         the high int, col in the low int)
+public class AnalysisCache
+{
+  static final int MAGIC = 0x474d4b54; //"GMKT"
+  static final int VERSION = 1;
+  static final int H_MAGIC = 0, H_VERSION = 4, H_BUCKETS = 8;
+  static final int HEADER = 64;
+  static final int ENTRY = 32, WAYS = 4, BUCKET = ENTRY*WAYS;
+  static final long VALID = 1L << 11, HAS_MOVE = 1L << 10;
+  public static final int DEFAULT_MEGABYTES = 64; //Size of a new cache unless the caller chooses
+
+  //Kinds of score
+  public static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+  static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  Path path;
+  MappedByteBuffer buf;
+  int buckets;
+  LongAdder hits = new LongAdder(), misses = new LongAdder(), stores = new LongAdder();
+
+  private AnalysisCache(Path path, MappedByteBuffer buf) throws IOException
+  {
+    this.path = path;
+    this.buf = buf;
+    if(buf.getInt(H_MAGIC) != MAGIC)
+      throw new IOException("Not an analysis cache: " + path);
+    int version = buf.getInt(H_VERSION);
+    if(version != VERSION)
+      throw new IOException("Unsupported analysis cache version " + version + ": " + path);
+    buckets = buf.getInt(H_BUCKETS);
+    if(Integer.bitCount(buckets) != 1 || HEADER + (long) BUCKET*buckets > buf.capacity())
+      throw new IOException("Corrupt analysis cache header: " + path);
+  }
+
+  // Open the cache in file, creating it with about megabytes of space
+  // if it does not exist. An existing cache keeps the size it was
+  // created with.
+  public static AnalysisCache open(Path file, int megabytes) throws IOException
+  {
+    try(FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE))
+    {
+      if(ch.size() == 0)
+      {
+        long room = Math.min((long) megabytes << 20, Integer.MAX_VALUE) - HEADER;
+        int buckets = Integer.highestOneBit((int) Math.max(1, room / BUCKET));
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(H_MAGIC, MAGIC);
+        header.putInt(H_VERSION, VERSION);
+        header.putInt(H_BUCKETS, buckets);
+        ch.write(header, 0);
+        ch.write(ByteBuffer.allocate(1), HEADER + (long) BUCKET*buckets - 1); //Extend the file sparsely
+      }
+      if(ch.size() > Integer.MAX_VALUE)
+        throw new IOException("Analysis cache too large to map: " + file);
+      return new AnalysisCache(file, ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size()));
+    }
+  }
+
+  // Key for a position: its PositionHash.getExact() hash, the player to
+  // move and a salt from salt()
+  public static long key(long positionHash, Object toMove, long salt)
+  {
+    return mix(positionHash ^ mix(PositionHash.stringHash(toMove.toString()) ^ salt));
+  }
+
+  // Salt describing an analysis: the evaluator's weights and any
+  // parameters that change the results, such as search width
+  public static long salt(Evaluator evaluator, long... params)
+  {
+    long s = 0x5bd1e995L;
+    for(double w : evaluator.getWeights())
+      s = mix(s ^ Double.doubleToLongBits(w));
+    for(long p : params)
+      s = mix(s ^ p);
+    return s;
+  }
+
+  static long mix(long z)
+  {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // A result read from the cache
+  public static class Entry
+  {
+    private double score;
+    private int depth, flag;
+    private boolean hasMove;
+    private int row, col;
+
+    Entry(double score, long meta, long move)
+    {
+      this.score = score;
+      depth = (int) (meta & 0xff);
+      flag = (int) (meta >>> 8 & 3);
+      hasMove = (meta & HAS_MOVE) != 0;
+      row = (int) (move >> 32);
+      col = (int) move;
+    }
+
+    public double getScore()
+    {
+      return score;
+    }
+
+    public int getDepth()
+    {
+      return depth;
+    }
+
+    // EXACT, LOWER or UPPER: whether the score is the value of the
+    // position or a bound on it
+    public int getFlag()
+    {
+      return flag;
+    }
+
+    // Best move, if one was stored
+    public boolean hasMove()
+    {
+      return hasMove;
+    }
+
+    public int getRow()
+    {
+      return row;
+    }
+
+    public int getCol()
+    {
+      return col;
+    }
+
+    public String toString()
+    {
+      return score + " depth " + depth + (flag == EXACT ? "" : flag == LOWER ? " lower" : " upper")
+        + (hasMove ? " move (" + row + "," + col + ")" : "");
+    }
+  }
+
+  private int bucket(long key)
+  {
+    return HEADER + BUCKET * (int) (key & (buckets-1));
+  }
+
+  // The entry for key, or null if it is not in the cache
+  //
+  // Complexity: O(1)
+  public Entry probe(long key)
+  {
+    int base = bucket(key);
+    for(int w = 0; w < WAYS; w++)
+    {
+      int off = base + w*ENTRY;
+      long check = (long) LONG.getAcquire(buf, off);
+      long score = (long) LONG.getAcquire(buf, off+8);
+      long meta = (long) LONG.getAcquire(buf, off+16);
+      long move = (long) LONG.getAcquire(buf, off+24);
+      if((meta & VALID) != 0 && (check ^ score ^ meta ^ move) == key)
+      {
+        hits.increment();
+        return new Entry(Double.longBitsToDouble(score), meta, move);
+      }
+    }
+    misses.increment();
+    return null;
+  }
+
+  // Store a result for key: score of the given kind (EXACT, LOWER or
+  // UPPER) from a search depth moves deep (0 to 255), with the best
+  // move row/col if hasMove. Ignored if the cache holds a deeper result
+  // for the key.
+  //
+  // Complexity: O(1)
+  public void store(long key, double score, int depth, int flag, boolean hasMove, int row, int col)
+  {
+    depth = Math.max(0, Math.min(255, depth));
+    int base = bucket(key);
+    int victim = -1, victimDepth = Integer.MAX_VALUE;
+    for(int w = 0; w < WAYS; w++)
+    {
+      int off = base + w*ENTRY;
+      long check = (long) LONG.getAcquire(buf, off);
+      long s = (long) LONG.getAcquire(buf, off+8);
+      long meta = (long) LONG.getAcquire(buf, off+16);
+      long move = (long) LONG.getAcquire(buf, off+24);
+      boolean valid = (meta & VALID) != 0;
+      if(valid && (check ^ s ^ meta ^ move) == key)
+      {
+        if((meta & 0xff) > depth)
+          return;
+        victim = off;
+        break;
+      }
+      int d = valid ? (int) (meta & 0xff) : -1;
+      if(d < victimDepth)
+      {
+        victim = off;
+        victimDepth = d;
+      }
+    }
+    long s = Double.doubleToRawLongBits(score);
+    long meta = VALID | (hasMove ? HAS_MOVE : 0) | (long) (flag & 3) << 8 | depth;
+    long move = (long) row << 32 | (col & 0xffffffffL);
+    LONG.setRelease(buf, victim+8, s);
+    LONG.setRelease(buf, victim+16, meta);
+    LONG.setRelease(buf, victim+24, move);
+    LONG.setRelease(buf, victim, key ^ s ^ meta ^ move);
+    stores.increment();
+  }
+
+  // Write changes out to the file now rather than when the operating
+  // system chooses to
+  public void force()
+  {
+    buf.force();
+  }
+
+  // Number of entries the cache can hold
+  public long getCapacity()
+  {
+    return (long) buckets * WAYS;
+  }
+
+  public String toString()
+  {
+    return path + ": " + getCapacity() + " entries, " + hits.sum() + " hits, " + misses.sum() + " misses, "
+      + stores.sum() + " stores this run";
+  }
+
+}
@@ -0,0 +1,203 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.file.*;
+
+// Annotates a stream of positions with the best move and its score.
+//
+// Usage: java BatchAnalyzer <input|-> <output|-> [threads] [budgetMs] [weightsFile|-] [cacheFile]
+//
+// Each input line is one position: the symbol of the player to move
+// followed by the elements on the board as row/col/symbol triples, e.g.
+//   X 0 0 X 0 1 O 1 1 O
+// Blank lines and lines starting with # are skipped. For every position
+// one line is written, in input order:
+//   <line number> <best row> <best col> <score>
+// with a trailing "partial" if the time budget ran out before all
+// candidate moves were scored, or "<line number> error <message>" for a
+// position that could not be set up.
+//
+// Given a cache file, results are looked up in and added to an
+// AnalysisCache there, so positions analysed by an earlier run, or by
+// the Gomoku hint command with the same weights, are not analysed
+// again.
+//
+// Positions are analysed by a fixed pool of worker threads, each of
+// which reuses one DenseBoard, undoing the previous position and
+// compacting the board before setting up the next. At most a fixed
+// window of positions is in flight: the reader blocks when the window
+// is full, so memory stays bounded however large the input is. A
+// throughput report is printed on standard error at the end.
+public class BatchAnalyzer
+{
+  // Board owned by one worker thread, with the number of sets made
+  // for the position it currently holds
+  static class WorkerBoard
+  {
+    DenseBoard<String> board = new DenseBoard<String>(".");
+    int sets = 0;
+  }
+
+  Evaluator evaluator;
+  AnalysisCache cache; //null for none
+  long budgetNanos; //Time allowed for each position
+  ThreadLocal<WorkerBoard> boards = ThreadLocal.withInitial(WorkerBoard::new);
+
+  public BatchAnalyzer(Evaluator evaluator, long budgetMillis)
+  {
+    this(evaluator, budgetMillis, null);
+  }
+
+  public BatchAnalyzer(Evaluator evaluator, long budgetMillis, AnalysisCache cache)
+  {
+    this.evaluator = evaluator;
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    this.cache = cache;
+  }
+
+  public static void main(String args[]) throws Exception
+  {
+    if(args.length < 2)
+    {
+      System.err.println("usage: java BatchAnalyzer <input|-> <output|-> [threads] [budgetMs] [weightsFile|-] [cacheFile]");
+      System.exit(1);
+    }
+    int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    long budget = args.length > 3 ? Long.parseLong(args[3]) : 1000;
+    Evaluator evaluator = args.length > 4 && !args[4].equals("-") ? Evaluator.load(Paths.get(args[4])) : new Evaluator();
+    AnalysisCache cache = args.length > 5 ? AnalysisCache.open(Paths.get(args[5]), AnalysisCache.DEFAULT_MEGABYTES) : null;
+
+    BufferedReader in = args[0].equals("-") ? new BufferedReader(new InputStreamReader(System.in))
+                                            : Files.newBufferedReader(Paths.get(args[0]));
+    Writer out = args[1].equals("-") ? new BufferedWriter(new OutputStreamWriter(System.out))
+                                     : Files.newBufferedWriter(Paths.get(args[1]));
+    new BatchAnalyzer(evaluator, budget, cache).run(in, out, threads);
+  }
+
+  // Analyse every position read from in, writing annotations to out in
+  // input order, then close both and report throughput on System.err.
+  public void run(BufferedReader in, Writer out, int threads) throws IOException, InterruptedException
+  {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    //Results in input order; the reader blocks on put() once this many
+    //positions are in flight
+    BlockingQueue<Future<String>> window = new ArrayBlockingQueue<Future<String>>(4*threads);
+    Future<String> end = CompletableFuture.completedFuture(null);
+    long start = System.nanoTime();
+    long[] counts = new long[2]; //Positions written, positions cut short by the budget
+    //First write failure, or error thrown by an analysis; later results
+    //are discarded but still drained so the reader never blocks
+    Throwable[] failure = new Throwable[1];
+
+    Thread writer = new Thread(() -> {
+      try
+      {
+        for(Future<String> f = window.take(); f != end; f = window.take())
+        {
+          String line;
+          try
+          {
+            line = f.get();
+          }
+          catch(ExecutionException e)
+          {
+            if(failure[0] == null)
+              failure[0] = e.getCause();
+            continue;
+          }
+          if(failure[0] != null)
+            continue;
+          try
+          {
+            out.write(line);
+            out.write('\n');
+          }
+          catch(IOException e)
+          {
+            failure[0] = e;
+          }
+          counts[0]++;
+          if(line.endsWith(" partial"))
+            counts[1]++;
+        }
+        out.flush();
+      }
+      catch(IOException e)
+      {
+        if(failure[0] == null)
+          failure[0] = e;
+      }
+      catch(InterruptedException e)
+      {
+        throw new RuntimeException("Analysis failed", e);
+      }
+    }, "BatchAnalyzer-writer");
+    writer.start();
+
+    try
+    {
+      int lineNo = 0;
+      for(String line = in.readLine(); line != null; line = in.readLine())
+      {
+        lineNo++;
+        String position = line.trim();
+        if(position.length() == 0 || position.startsWith("#"))
+          continue;
+        int n = lineNo;
+        window.put(pool.submit(() -> analyse(n, position)));
+      }
+    }
+    finally
+    {
+      window.put(end);
+      writer.join();
+      pool.shutdown();
+      in.close();
+      out.close();
+    }
+    if(failure[0] instanceof IOException)
+      throw (IOException) failure[0];
+    if(failure[0] != null)
+      throw new RuntimeException("Analysis failed", failure[0]);
+
+    double secs = (System.nanoTime() - start) / 1e9;
+    System.err.printf("Analysed %d positions in %.2fs (%.1f positions/s) with %d threads; %d exceeded the time budget\n",
+                      counts[0], secs, counts[0] / Math.max(secs, 1e-9), threads, counts[1]);
+    if(cache != null)
+      System.err.println("Cache " + cache);
+  }
+
+  // Set up one position on this worker's board and annotate it
+  String analyse(int lineNo, String position)
+  {
+    long deadline = System.nanoTime() + budgetNanos;
+    WorkerBoard w = boards.get();
+    try
+    {
+      while(w.sets > 0)
+      {
+        w.board.undoSet();
+        w.sets--;
+      }
+      w.board.compact();
+
+      String[] tok = position.split("\\s+");
+      if(tok.length % 3 != 1)
+        throw new RuntimeException("Expected player followed by row col symbol triples");
+      for(int i = 1; i < tok.length; i += 3)
+      {
+        if(tok[i+2].equals(w.board.getFillElem()))
+          throw new RuntimeException("Cannot place the fill element " + tok[i+2]);
+        w.board.set(Integer.parseInt(tok[i]), Integer.parseInt(tok[i+1]), tok[i+2]);
+        w.sets++;
+      }
+      Evaluator.Move m = evaluator.bestMove(w.board, tok[0], deadline, cache);
+      return lineNo + " " + m.getRow() + " " + m.getCol() + " " + m.getScore() + (m.isComplete() ? "" : " partial");
+    }
+    catch(RuntimeException e)
+    {
+      return lineNo + " error " + e.getMessage();
+    }
+  }
+
+}
@@ -0,0 +1,327 @@
+import java.util.*;
+
+// LineScanner which works on bit-planes: for every code on the grid a
+// bitmap with one bit per cell, 64 cells to a long, each row starting
+// a new long. Moving a whole plane one cell along a direction is a
+// shift of each row by one bit (with a carry between longs) plus, for
+// the vertical and diagonal directions, taking the bits from the next
+// row, so a single AND of a plane with its shifted copy handles 64
+// cells at once.
+//
+// If P is the plane of a code and S_k(P) is P moved k cells against a
+// direction, so that bit x of S_k(P) is the bit of the cell k steps
+// further along, then A_n = P & S_1(P) & ... & S_(n-1)(P) marks the
+// cells where a run of at least n cells starts. A_(a+b) = A_a &
+// S_a(A_b), so A_n is built from A_1, A_2, A_4, ... in O(log n) plane
+// operations and the longest run is found by doubling then halving.
+// Runs are counted from their first cells, P & ~S_-1(P).
+//
+// Each plane operation is a loop of longs with no branches per cell,
+// which the JIT compiles to vector instructions where the hardware has
+// them.
+public class BitLineScanner implements LineScanner
+{
+  int rows, cols;
+  int words; //Longs per row
+  long tailMask; //Bits of the last long of a row which are on the grid
+  long[][] planes = new long[256][]; //Cells holding each code, null if the code is absent
+  long[] occupied; //Cells holding any code
+
+  // Scan the rows x cols grid of codes in row-major order
+  //
+  // Complexity: O(R*C)
+  public BitLineScanner(byte[] codes, int rows, int cols)
+  {
+    if(codes.length != rows*cols)
+      throw new RuntimeException("Expected " + rows*cols + " codes, got " + codes.length);
+    this.rows = rows;
+    this.cols = cols;
+    words = Math.max(1, (cols+63) >>> 6);
+    tailMask = (cols & 63) == 0 ? -1L : (1L << (cols & 63)) - 1;
+    occupied = new long[rows*words];
+    boolean[] present = new boolean[256];
+    for(byte x : codes)
+      present[x & 0xff] = true;
+    for(int code = 1; code < 256; code++)
+    {
+      if(!present[code])
+        continue;
+      long[] p = planes[code] = new long[rows*words];
+      for(int r = 0; r < rows; r++)
+      {
+        for(int c0 = 0; c0 < cols; c0 += 64)
+        {
+          //Pack 64 cells without branching: (x^code)-1 is negative
+          //only when x == code
+          long bits = 0;
+          int base = r*cols + c0, n = Math.min(64, cols-c0);
+          for(int j = 0; j < n; j++)
+            bits |= (long) ((((codes[base+j] & 0xff) ^ code) - 1) >>> 31) << j;
+          p[r*words + (c0 >>> 6)] = bits;
+          occupied[r*words + (c0 >>> 6)] |= bits;
+        }
+      }
+    }
+  }
+
+  public int getRows()
+  {
+    return rows;
+  }
+
+  public int getCols()
+  {
+    return cols;
+  }
+
+  // Set dst to src moved k cells against direction d: bit r/c of dst
+  // is bit (r+k*DROW[d])/(c+k*DCOL[d]) of src, or 0 off the grid. k
+  // may be negative. dst must not be src.
+  //
+  // Complexity: O(R*C/64)
+  void step(long[] src, int d, int k, long[] dst)
+  {
+    int dr = k*DROW[d], s = k*DCOL[d];
+    //Rows lo..hi-1 have a source row on the grid
+    int lo = Math.max(0, -dr), hi = Math.min(rows, rows-dr);
+    if(lo >= hi || s >= cols || -s >= cols)
+    {
+      Arrays.fill(dst, 0L);
+      return;
+    }
+    Arrays.fill(dst, 0, lo*words, 0L);
+    Arrays.fill(dst, hi*words, rows*words, 0L);
+    if(words == 1)
+    {
+      //Small grids: one long per row
+      if(s >= 0)
+      {
+        for(int r = lo; r < hi; r++)
+          dst[r] = src[r+dr] >>> s;
+      }
+      else
+      {
+        for(int r = lo; r < hi; r++)
+          dst[r] = (src[r+dr] << -s) & tailMask;
+      }
+      return;
+    }
+    for(int r = lo; r < hi; r++)
+    {
+      if(s >= 0)
+        shiftDown(src, (r+dr)*words, s, dst, r*words);
+      else
+        shiftUp(src, (r+dr)*words, -s, dst, r*words);
+    }
+  }
+
+  // Bit c of the row at dst[to..] becomes bit c+s of the row at src[from..]
+  private void shiftDown(long[] src, int from, int s, long[] dst, int to)
+  {
+    int wo = s >>> 6, b = s & 63, n = words-wo;
+    if(b == 0)
+      System.arraycopy(src, from+wo, dst, to, n);
+    else
+    {
+      for(int i = 0; i < n-1; i++)
+        dst[to+i] = (src[from+wo+i] >>> b) | (src[from+wo+i+1] << (64-b));
+      dst[to+n-1] = src[from+words-1] >>> b;
+    }
+    Arrays.fill(dst, to+n, to+words, 0L);
+  }
+
+  // Bit c of the row at dst[to..] becomes bit c-s of the row at src[from..]
+  private void shiftUp(long[] src, int from, int s, long[] dst, int to)
+  {
+    int wo = s >>> 6, b = s & 63, n = words-wo;
+    if(b == 0)
+      System.arraycopy(src, from, dst, to+wo, n);
+    else
+    {
+      for(int i = n-1; i > 0; i--)
+        dst[to+wo+i] = (src[from+i] << b) | (src[from+i-1] >>> (64-b));
+      dst[to+wo] = src[from] << b;
+    }
+    Arrays.fill(dst, to, to+wo, 0L);
+    dst[to+words-1] &= tailMask;
+  }
+
+  // Plane of code, null if code is not on the grid
+  private long[] plane(int code)
+  {
+    return code < 1 || code > 255 ? null : planes[code];
+  }
+
+  private static void and(long[] a, long[] b)
+  {
+    for(int i = 0; i < a.length; i++)
+      a[i] &= b[i];
+  }
+
+  private static boolean isZero(long[] a)
+  {
+    long any = 0;
+    for(int i = 0; i < a.length; i++)
+      any |= a[i];
+    return any == 0;
+  }
+
+  // Cells where a run of at least n cells of plane p starts in
+  // direction d (A_n above). p is not changed.
+  //
+  // Complexity: O(log(n)*R*C/64)
+  long[] atLeast(long[] p, int d, int n)
+  {
+    long[] tmp = new long[p.length];
+    long[] acc = null, pow = p;
+    int accLen = 0, powLen = 1;
+    while(true)
+    {
+      if((n & 1) != 0)
+      {
+        if(acc == null)
+          acc = pow.clone();
+        else
+        {
+          step(pow, d, accLen, tmp);
+          and(acc, tmp);
+        }
+        accLen += powLen;
+      }
+      n >>>= 1;
+      if(n == 0)
+        return acc;
+      step(pow, d, powLen, tmp);
+      pow = pow == p ? p.clone() : pow;
+      and(pow, tmp);
+      powLen *= 2;
+      if(isZero(pow))
+        return new long[p.length];
+    }
+  }
+
+  // Complexity: O(log(L)*R*C/64)
+  //   L: length of the longest run
+  public int longestRun(int code)
+  {
+    long[] p = plane(code);
+    if(p == null)
+      return 0;
+    int best = 0;
+    long[] tmp = new long[p.length];
+    for(int d = 0; d < 4; d++)
+    {
+      //pows[i] is A_(2^i); double until A_(2*len) is empty...
+      ArrayList<long[]> pows = new ArrayList<long[]>();
+      pows.add(p);
+      int len = 1;
+      while(true)
+      {
+        long[] pow = pows.get(pows.size()-1);
+        step(pow, d, len, tmp);
+        long[] next = pow.clone();
+        and(next, tmp);
+        if(isZero(next))
+          break;
+        pows.add(next);
+        len *= 2;
+      }
+      //...then add the smaller powers that still leave a run
+      long[] cur = pows.get(pows.size()-1);
+      for(int j = pows.size()-2; j >= 0; j--)
+      {
+        step(pows.get(j), d, len, tmp);
+        and(tmp, cur);
+        if(!isZero(tmp))
+        {
+          cur = tmp;
+          tmp = new long[p.length];
+          len += 1 << j;
+        }
+      }
+      best = Math.max(best, len);
+    }
+    return best;
+  }
+
+  // Complexity: O(log(length)*R*C/64)
+  public boolean hasRun(int code, int length)
+  {
+    if(length < 1)
+      throw new RuntimeException("Run length must be positive");
+    long[] p = plane(code);
+    if(p == null)
+      return false;
+    for(int d = 0; d < 4; d++)
+    {
+      if(!isZero(atLeast(p, d, length)))
+        return true;
+    }
+    return false;
+  }
+
+  // Complexity: O(log(length)*R*C/64)
+  public int countRuns(int code, int length)
+  {
+    if(length < 1)
+      throw new RuntimeException("Run length must be positive");
+    long[] p = plane(code);
+    if(p == null)
+      return 0;
+    long[] prev = new long[p.length];
+    int n = 0;
+    for(int d = 0; d < 4; d++)
+    {
+      long[] a = atLeast(p, d, length);
+      step(p, d, -1, prev);
+      for(int i = 0; i < a.length; i++)
+        n += Long.bitCount(a[i] & ~prev[i]);
+    }
+    return n;
+  }
+
+  // Runs are taken one length at a time: of the cells where a run of at
+  // least len starts, those whose cell len steps on does not hold the
+  // code start a run of exactly len.
+  //
+  // Complexity: O(L*R*C/64)
+  //   L: length of the longest run
+  public void countFeatures(int code, int maxLen, int[] out, int offset)
+  {
+    long[] p = plane(code);
+    if(p == null)
+      return;
+    int n = p.length;
+    long[] cur = new long[n], openBefore = new long[n], ahead = new long[n], aheadOcc = new long[n];
+    for(int d = 0; d < 4; d++)
+    {
+      step(p, d, -1, cur);
+      step(occupied, d, -1, openBefore);
+      for(int i = 0; i < n; i++)
+      {
+        cur[i] = p[i] & ~cur[i];
+        openBefore[i] = ~openBefore[i];
+      }
+      for(int len = 1; !isZero(cur); len++)
+      {
+        step(p, d, len, ahead);
+        step(occupied, d, len, aheadOcc);
+        int open0 = 0, open1 = 0, open2 = 0;
+        for(int i = 0; i < n; i++)
+        {
+          long exact = cur[i] & ~ahead[i];
+          long before = openBefore[i], after = ~aheadOcc[i];
+          open2 += Long.bitCount(exact & before & after);
+          open1 += Long.bitCount(exact & (before ^ after));
+          open0 += Long.bitCount(exact & ~before & ~after);
+          cur[i] &= ahead[i];
+        }
+        int f = offset + (Math.min(len, maxLen)-1)*3;
+        out[f] += open0;
+        out[f+1] += open1;
+        out[f+2] += open2;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,358 @@
+import java.util.*;
+import java.util.function.Function;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// Saves the complete state of a DenseBoard to a binary file and
+// restores it: extent, fill element, every element, the undo and redo
+// history and the longest sequence history, so a restored board
+// behaves exactly as the saved one did. Registered listeners are not
+// saved.
+//
+// Elements are written as their toString() form once each in a
+// dictionary; cells and history refer to them by 2 byte codes, so at
+// most 65535 distinct elements can be saved. Restoring maps the file
+// and copies each row of codes out in bulk, which is far faster than
+// replaying the moves.
+//
+// File layout (big-endian):
+//   magic, version                          ints
+//   minRow, maxRow, minCol, maxCol          ints
+//   sequenceLength, liveCount, compactSlack ints
+//   compactAt                               int (from version 2)
+//   compactThreshold                        double
+//   fill element                            string
+//   dictionary: count, strings for codes 1..count
+//   cells: R*C shorts in row-major order, 0 for empty
+//   undo, redo: count, then (row int, col int, code short) bottom first
+//   sequence lists: count, then each as length and (row, col, code)
+//   sequence, redSeq: count, then list indices bottom first
+// where strings are an int byte length followed by UTF-8 bytes.
+//
+// Version 1 checkpoints, which predate compactAt, are still restored;
+// their boards compact on the next undo below the threshold, as after
+// setCompaction().
+public class BoardCheckpoint
+{
+  static final int MAGIC = 0x474d4b43; //"GMKC"
+  static final int VERSION = 2;
+
+  // Write the state of board to file, replacing it atomically: the
+  // checkpoint is written to a temporary file alongside and moved into
+  // place once complete, so a crash never leaves a partial checkpoint.
+  // If writing fails the temporary file is deleted.
+  //
+  // Complexity: O(R*C + H)
+  //   H: total size of the history
+  public static <T> void save(DenseBoard<T> board, Path file) throws IOException
+  {
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try
+    {
+      write(board, tmp);
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(IOException | RuntimeException e)
+    {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+  }
+
+  private static <T> void write(DenseBoard<T> board, Path tmp) throws IOException
+  {
+    try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                          StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      Writer out = new Writer(ch);
+      SymbolTable<T> symbols = new SymbolTable<T>(65535);
+      T last = null; //Cells mostly repeat a few element objects; skip the lookup for a repeat
+      for(ArrayList<T> row : board.board)
+      {
+        for(T e : row)
+        {
+          if(e != null && e != last)
+          {
+            symbols.code(e);
+            last = e;
+          }
+        }
+      }
+      for(RowColElem<T> e : board.undo)
+        symbols.code(e.getElem());
+      for(RowColElem<T> e : board.redo)
+        symbols.code(e.getElem());
+      for(List<RowColElem<T>> l : board.sequence)
+      {
+        for(RowColElem<T> e : l)
+          symbols.code(e.getElem());
+      }
+      for(List<RowColElem<T>> l : board.redSeq)
+      {
+        for(RowColElem<T> e : l)
+          symbols.code(e.getElem());
+      }
+
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(board.minYBound);
+      out.putInt(board.maxYBound);
+      out.putInt(board.minXBound);
+      out.putInt(board.maxXBound);
+      out.putInt(board.sequenceLength);
+      out.putInt(board.liveCount);
+      out.putInt(board.compactSlack);
+      out.putInt(board.compactAt);
+      out.putDouble(board.compactThreshold);
+      out.putString(board.fill.toString());
+      out.putInt(symbols.size());
+      for(int c = 1; c <= symbols.size(); c++)
+        out.putString(symbols.symbol(c).toString());
+
+      short[] rowCodes = new short[board.getPhysicalCols()];
+      last = null;
+      short lastCode = 0;
+      for(ArrayList<T> row : board.board)
+      {
+        for(int j = 0; j < row.size(); j++)
+        {
+          T e = row.get(j);
+          if(e != last)
+          {
+            lastCode = (short) (e == null ? 0 : symbols.lookup(e));
+            last = e;
+          }
+          rowCodes[j] = lastCode;
+        }
+        out.putShorts(rowCodes);
+      }
+
+      putMoves(out, board.undo, symbols);
+      putMoves(out, board.redo, symbols);
+
+      IdentityHashMap<List<RowColElem<T>>,Integer> lists = new IdentityHashMap<List<RowColElem<T>>,Integer>();
+      List<List<RowColElem<T>>> order = new ArrayList<List<RowColElem<T>>>();
+      for(List<RowColElem<T>> l : board.sequence)
+        numberList(l, lists, order);
+      for(List<RowColElem<T>> l : board.redSeq)
+        numberList(l, lists, order);
+      out.putInt(order.size());
+      for(List<RowColElem<T>> l : order)
+        putMoves(out, l, symbols);
+      out.putInt(board.sequence.size());
+      for(List<RowColElem<T>> l : board.sequence)
+        out.putInt(lists.get(l));
+      out.putInt(board.redSeq.size());
+      for(List<RowColElem<T>> l : board.redSeq)
+        out.putInt(lists.get(l));
+      out.flush();
+      ch.force(false);
+    }
+  }
+
+  private static <T> void numberList(List<RowColElem<T>> l, IdentityHashMap<List<RowColElem<T>>,Integer> lists,
+                                     List<List<RowColElem<T>>> order)
+  {
+    if(!lists.containsKey(l))
+    {
+      lists.put(l, order.size());
+      order.add(l);
+    }
+  }
+
+  private static <T> void putMoves(Writer out, List<RowColElem<T>> moves, SymbolTable<T> symbols) throws IOException
+  {
+    out.putInt(moves.size());
+    for(RowColElem<T> m : moves)
+    {
+      out.putInt(m.getRow());
+      out.putInt(m.getCol());
+      out.putShort(symbols.lookup(m.getElem()));
+    }
+  }
+
+  // Restore a board of strings saved by save()
+  public static DenseBoard<String> restore(Path file) throws IOException
+  {
+    return restore(file, Function.identity());
+  }
+
+  // Restore a board saved by save(), turning the saved string form of
+  // each distinct element back into an element with decode. decode is
+  // called once per distinct element, not once per cell.
+  //
+  // Complexity: O(R*C + H)
+  public static <T> DenseBoard<T> restore(Path file, Function<String,T> decode) throws IOException
+  {
+    ByteBuffer in;
+    try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+    }
+    if(in.getInt() != MAGIC)
+      throw new IOException("Not a board checkpoint: " + file);
+    int version = in.getInt();
+    if(version != VERSION && version != 1)
+      throw new IOException("Unsupported checkpoint version " + version + ": " + file);
+
+    int minRow = in.getInt(), maxRow = in.getInt(), minCol = in.getInt(), maxCol = in.getInt();
+    int sequenceLength = in.getInt(), liveCount = in.getInt(), compactSlack = in.getInt();
+    int compactAt = version == 1 ? Integer.MAX_VALUE : in.getInt();
+    double compactThreshold = in.getDouble();
+    DenseBoard<T> board = new DenseBoard<T>(decode.apply(getString(in)));
+    int n = in.getInt();
+    List<T> symbols = new ArrayList<T>(n+1);
+    symbols.add(null);
+    for(int c = 1; c <= n; c++)
+      symbols.add(decode.apply(getString(in)));
+
+    int rows = maxRow-minRow+1, cols = maxCol-minCol+1;
+    ArrayList<ArrayList<T>> cells = new ArrayList<ArrayList<T>>(rows);
+    ShortBuffer codes = in.slice().asShortBuffer();
+    short[] rowCodes = new short[cols];
+    for(int i = 0; i < rows; i++)
+    {
+      codes.get(rowCodes);
+      ArrayList<T> row = new ArrayList<T>(cols);
+      for(int j = 0; j < cols; j++)
+        row.add(symbols.get(rowCodes[j] & 0xffff));
+      cells.add(row);
+    }
+    in.position(in.position() + 2*rows*cols);
+
+    board.board = cells;
+    board.minYBound = minRow;
+    board.maxYBound = maxRow;
+    board.minXBound = minCol;
+    board.maxXBound = maxCol;
+    board.sequenceLength = sequenceLength;
+    board.liveCount = liveCount;
+    board.compactSlack = compactSlack;
+    board.compactAt = compactAt;
+    board.compactThreshold = compactThreshold;
+    board.undo.addAll(getMoves(in, symbols));
+    board.redo.addAll(getMoves(in, symbols));
+    int nLists = in.getInt();
+    List<List<RowColElem<T>>> lists = new ArrayList<List<RowColElem<T>>>(nLists);
+    for(int i = 0; i < nLists; i++)
+      lists.add(getMoves(in, symbols));
+    for(int i = in.getInt(); i > 0; i--)
+      board.sequence.push(lists.get(in.getInt()));
+    for(int i = in.getInt(); i > 0; i--)
+      board.redSeq.push(lists.get(in.getInt()));
+    return board;
+  }
+
+  private static <T> List<RowColElem<T>> getMoves(ByteBuffer in, List<T> symbols)
+  {
+    int n = in.getInt();
+    List<RowColElem<T>> moves = new ArrayList<RowColElem<T>>(n);
+    for(int i = 0; i < n; i++)
+    {
+      int row = in.getInt();
+      int col = in.getInt();
+      moves.add(new RowColElem<T>(row, col, symbols.get(in.getShort() & 0xffff)));
+    }
+    return moves;
+  }
+
+  private static String getString(ByteBuffer in)
+  {
+    byte[] b = new byte[in.getInt()];
+    in.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  // Buffers primitive writes and hands them to a channel in large
+  // blocks
+  static class Writer
+  {
+    WritableByteChannel ch;
+    ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+    long flushed; //Bytes handed to the channel so far
+
+    Writer(WritableByteChannel ch)
+    {
+      this.ch = ch;
+    }
+
+    void ensure(int n) throws IOException
+    {
+      if(buf.remaining() < n)
+        flush();
+    }
+
+    void flush() throws IOException
+    {
+      buf.flip();
+      while(buf.hasRemaining())
+        flushed += ch.write(buf);
+      buf.clear();
+    }
+
+    // Number of bytes written so far, flushed or not
+    long position()
+    {
+      return flushed + buf.position();
+    }
+
+    void putByte(int v) throws IOException
+    {
+      ensure(1);
+      buf.put((byte) v);
+    }
+
+    void putInt(int v) throws IOException
+    {
+      ensure(4);
+      buf.putInt(v);
+    }
+
+    void putLong(long v) throws IOException
+    {
+      ensure(8);
+      buf.putLong(v);
+    }
+
+    void putShort(int v) throws IOException
+    {
+      ensure(2);
+      buf.putShort((short) v);
+    }
+
+    void putShorts(short[] v) throws IOException
+    {
+      for(int off = 0; off < v.length; )
+      {
+        ensure(2);
+        int n = Math.min(buf.remaining()/2, v.length-off);
+        buf.asShortBuffer().put(v, off, n);
+        buf.position(buf.position() + 2*n);
+        off += n;
+      }
+    }
+
+    void putDouble(double v) throws IOException
+    {
+      ensure(8);
+      buf.putDouble(v);
+    }
+
+    void putString(String s) throws IOException
+    {
+      byte[] b = s.getBytes(StandardCharsets.UTF_8);
+      putInt(b.length);
+      for(int off = 0; off < b.length; )
+      {
+        ensure(1);
+        int n = Math.min(buf.remaining(), b.length-off);
+        buf.put(b, off, n);
+        off += n;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+import java.util.*;
+import java.nio.*;
+import java.nio.file.*;
+
+// Checks BoardCheckpoint save/restore round trips, run with:
+// java BoardCheckpointTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class BoardCheckpointTest extends Checks
+{
+  // One random set, undo or redo applied to both boards; false if it
+  // could not be applied to a (nothing to undo or redo, cell taken)
+  static boolean step(Random random, DenseBoard<String> a, DenseBoard<String> b)
+  {
+    int op = random.nextInt(6);
+    try
+    {
+      if(op == 0)
+        a.undoSet();
+      else if(op == 1)
+        a.redoSet();
+      else
+      {
+        //Mostly close play with the odd far-off stone to trigger compaction
+        int spread = random.nextInt(10) == 0 ? 60 : 8;
+        int row = random.nextInt(spread), col = random.nextInt(spread);
+        if(!a.get(row, col).equals("."))
+          return false;
+        String x = random.nextBoolean() ? "X" : "O";
+        a.set(row, col, x);
+        if(b != null)
+          b.set(row, col, x);
+        return true;
+      }
+    }
+    catch(RuntimeException e)
+    {
+      return false;
+    }
+    if(b != null)
+    {
+      if(op == 0)
+        b.undoSet();
+      else
+        b.redoSet();
+    }
+    return true;
+  }
+
+  static boolean sameLayout(DenseBoard<String> a, DenseBoard<String> b)
+  {
+    return sameBoard(a, b) && a.getPhysicalRows() == b.getPhysicalRows() && a.getPhysicalCols() == b.getPhysicalCols();
+  }
+
+  public static void main(String args[]) throws Exception
+  {
+    Path file = Files.createTempFile("BoardCheckpointTest", ".ckpt");
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    try
+    {
+      //Save part way through a game, restore, and carry on playing the
+      //same moves on both boards
+      Random random = new Random(33);
+      int games = 300, differ = 0;
+      for(int g = 0; g < games; g++)
+      {
+        DenseBoard<String> board = new DenseBoard<String>(0, 3, 0, 3, ".");
+        if(g % 2 == 0)
+          board.setCompaction(0.2 + 0.3*random.nextDouble(), random.nextInt(3));
+        for(int move = random.nextInt(80); move > 0; move--)
+          step(random, board, null);
+        BoardCheckpoint.save(board, file);
+        DenseBoard<String> restored = BoardCheckpoint.restore(file);
+        boolean same = sameLayout(board, restored);
+        for(int move = 0; move < 80 && same; move++)
+        {
+          step(random, board, restored);
+          same = sameLayout(board, restored);
+        }
+        if(!same)
+          differ++;
+      }
+      check("restored boards play on as the saved ones in " + games + " games", differ == 0);
+
+      //A version 1 checkpoint, which has no compactAt, still restores
+      DenseBoard<String> board = new DenseBoard<String>(0, 3, 0, 3, ".");
+      board.setCompaction(0.3, 1);
+      board.set(1, 1, "X");
+      board.set(1, 2, "O");
+      BoardCheckpoint.save(board, file);
+      ByteBuffer v2 = ByteBuffer.wrap(Files.readAllBytes(file));
+      ByteBuffer v1 = ByteBuffer.allocate(v2.capacity() - 4);
+      v1.put(v2.array(), 0, 36).put(v2.array(), 40, v2.capacity() - 40);
+      v1.putInt(4, 1);
+      Files.write(file, v1.array());
+      DenseBoard<String> old = BoardCheckpoint.restore(file);
+      check("version 1 checkpoints restore", sameLayout(board, old) && old.compactAt == Integer.MAX_VALUE);
+
+      //A save which fails leaves neither the temporary file nor a
+      //changed checkpoint behind
+      BoardCheckpoint.save(board, file);
+      byte[] saved = Files.readAllBytes(file);
+      DenseBoard<String> crowded = new DenseBoard<String>(0, 255, 0, 256, ".");
+      for(int i = 0; i < 65536; i++)
+        crowded.set(i / 257, i % 257, "e" + i);
+      boolean threw = false;
+      try
+      {
+        BoardCheckpoint.save(crowded, file);
+      }
+      catch(RuntimeException e)
+      {
+        threw = true;
+      }
+      check("saving too many distinct elements fails", threw);
+      check("failed save removes its temporary file", !Files.exists(tmp));
+      check("failed save keeps the previous checkpoint", Arrays.equals(saved, Files.readAllBytes(file)));
+    }
+    finally
+    {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(tmp);
+    }
+
+    finish();
+  }
+
+}
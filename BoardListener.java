@@ -0,0 +1,30 @@
+// Receives notification of every change made to an ExpandableBoard.
+// Register with addBoardListener(). Callbacks take the changed
+// coordinates and element directly so that no event object needs to
+// be created for each move; structures kept alongside a board
+// (hashes, evaluators, candidate sets, loggers) can use them to update
+// themselves incrementally rather than rescanning the board.
+//
+// Callbacks are made after the board has changed, so a listener may
+// query the board to see the new state. Listeners must not modify the
+// board from within a callback.
+public interface BoardListener<T> {
+
+  // Called after set(row,col,x) has placed x at row,col. Sets of the
+  // fill element have no effect on the board and are not reported.
+  public void elementSet(int row, int col, T x);
+
+  // Called after undoSet() has cleared the element x at row,col
+  public void elementUndone(int row, int col, T x);
+
+  // Called after redoSet() has put the element x back at row,col
+  public void elementRedone(int row, int col, T x);
+
+  // Called whenever the extent of the board changes, with the new
+  // min/max row/col of the board.
+  public void extentChanged(int minRow, int maxRow, int minCol, int maxCol);
+
+  // Called after setFillElem() with the old and new fill element
+  public void fillElemChanged(T oldFill, T newFill);
+
+}
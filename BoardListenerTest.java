@@ -0,0 +1,108 @@
+import java.util.*;
+
+// Checks for the BoardListener callbacks of DenseBoard, run with:
+// java BoardListenerTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class BoardListenerTest extends Checks
+{
+  // Records every callback as a line of text
+  static class Recorder implements BoardListener<String>
+  {
+    List<String> events = new ArrayList<String>();
+
+    public void elementSet(int row, int col, String x)
+    {
+      events.add("set " + row + " " + col + " " + x);
+    }
+
+    public void elementUndone(int row, int col, String x)
+    {
+      events.add("undone " + row + " " + col + " " + x);
+    }
+
+    public void elementRedone(int row, int col, String x)
+    {
+      events.add("redone " + row + " " + col + " " + x);
+    }
+
+    public void extentChanged(int minRow, int maxRow, int minCol, int maxCol)
+    {
+      events.add("extent " + minRow + " " + maxRow + " " + minCol + " " + maxCol);
+    }
+
+    public void fillElemChanged(String oldFill, String newFill)
+    {
+      events.add("fill " + oldFill + " " + newFill);
+    }
+
+    // The events since the last call, which are then forgotten
+    List<String> take()
+    {
+      List<String> taken = events;
+      events = new ArrayList<String>();
+      return taken;
+    }
+  }
+
+  public static void main(String args[])
+  {
+    DenseBoard<String> board = new DenseBoard<String>(0, 2, 0, 2, ".");
+    Recorder r = new Recorder();
+    board.addBoardListener(r);
+
+    board.set(1, 1, "X");
+    check("set is reported", r.take().equals(Arrays.asList("set 1 1 X")));
+
+    board.set(0, 4, "O");
+    check("set outside the extent reports the expansion first",
+          r.take().equals(Arrays.asList("extent 0 2 0 4", "set 0 4 O")));
+
+    board.set(2, 2, ".");
+    check("set of the fill element is not reported", r.take().isEmpty());
+
+    board.undoSet();
+    check("undo is reported", r.take().equals(Arrays.asList("undone 0 4 O")));
+
+    board.redoSet();
+    check("redo is reported", r.take().equals(Arrays.asList("redone 0 4 O")));
+
+    board.setFillElem("-");
+    check("fill change is reported", r.take().equals(Arrays.asList("fill . -")));
+
+    //An undo which drops occupancy below the threshold compacts
+    board.setCompaction(0.5, 0);
+    board.set(10, 10, "X");
+    r.take();
+    board.undoSet();
+    check("compaction after undo is reported as an extent change",
+          r.take().equals(Arrays.asList("undone 10 10 X", "extent 0 1 1 4")));
+
+    board.compact();
+    check("compact() with nothing to release is not reported", r.take().isEmpty());
+
+    //Every registered listener hears of each change
+    Recorder second = new Recorder();
+    board.addBoardListener(second);
+    board.set(1, 2, "O");
+    check("every listener is called", r.take().size() == 1 && second.take().size() == 1);
+
+    board.removeBoardListener(r);
+    board.set(1, 3, "X");
+    check("removed listener is not called", r.take().isEmpty() && second.take().size() == 1);
+
+    boolean threw = false;
+    try
+    {
+      board.addBoardListener(null);
+    }
+    catch(RuntimeException e)
+    {
+      threw = e.getMessage().equals("Cannot add null listener");
+    }
+    check("adding a null listener throws", threw);
+
+    finish();
+  }
+
+}
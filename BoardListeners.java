@@ -0,0 +1,93 @@
+import java.util.*;
+
+// Holds the listeners registered on a board and dispatches changes to
+// them. Listeners are kept in a plain array which is replaced on
+// add/remove so that dispatching is an indexed loop with no iterator
+// or event allocation; boards call the fire methods on every move.
+public class BoardListeners<T>
+{
+  private BoardListener<T>[] listeners = newArray(0); //Registered listeners in registration order
+
+  @SuppressWarnings({"unchecked","rawtypes"})
+  private static <T> BoardListener<T>[] newArray(int n)
+  {
+    return (BoardListener<T>[]) new BoardListener[n];
+  }
+
+  // Register a listener. Listeners cannot be null; attempting to add
+  // null generates a RuntimeException with the message
+  // "Cannot add null listener"
+  //
+  // Complexity: O(N)
+  //   N: number of registered listeners
+  public void add(BoardListener<T> l)
+  {
+    if(l == null)
+      throw new RuntimeException("Cannot add null listener");
+    BoardListener<T>[] grown = Arrays.copyOf(listeners, listeners.length+1);
+    grown[listeners.length] = l;
+    listeners = grown;
+  }
+
+  // Remove the first registration of a listener. Removing a listener
+  // that was never added has no effect.
+  //
+  // Complexity: O(N)
+  public void remove(BoardListener<T> l)
+  {
+    for(int i = 0; i < listeners.length; i++)
+    {
+      if(listeners[i] == l)
+      {
+        BoardListener<T>[] shrunk = newArray(listeners.length-1);
+        System.arraycopy(listeners, 0, shrunk, 0, i);
+        System.arraycopy(listeners, i+1, shrunk, i, listeners.length-i-1);
+        listeners = shrunk;
+        return;
+      }
+    }
+  }
+
+  // True if any listener is registered
+  public boolean isEmpty()
+  {
+    return listeners.length == 0;
+  }
+
+  // Dispatch methods; each is O(N) with no allocation
+  public void fireSet(int row, int col, T x)
+  {
+    BoardListener<T>[] ls = listeners;
+    for(int i = 0; i < ls.length; i++)
+      ls[i].elementSet(row, col, x);
+  }
+
+  public void fireUndone(int row, int col, T x)
+  {
+    BoardListener<T>[] ls = listeners;
+    for(int i = 0; i < ls.length; i++)
+      ls[i].elementUndone(row, col, x);
+  }
+
+  public void fireRedone(int row, int col, T x)
+  {
+    BoardListener<T>[] ls = listeners;
+    for(int i = 0; i < ls.length; i++)
+      ls[i].elementRedone(row, col, x);
+  }
+
+  public void fireExtentChanged(int minRow, int maxRow, int minCol, int maxCol)
+  {
+    BoardListener<T>[] ls = listeners;
+    for(int i = 0; i < ls.length; i++)
+      ls[i].extentChanged(minRow, maxRow, minCol, maxCol);
+  }
+
+  public void fireFillElemChanged(T oldFill, T newFill)
+  {
+    BoardListener<T>[] ls = listeners;
+    for(int i = 0; i < ls.length; i++)
+      ls[i].fillElemChanged(oldFill, newFill);
+  }
+
+}
@@ -0,0 +1,74 @@
+import java.util.*;
+
+// Checks the DenseBoard(T[][]) bulk load against a board filled by
+// set() in row-major order, run with: java BulkLoadTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class BulkLoadTest extends Checks
+{
+  // A rows x cols array of ".", X, O (and further symbols when symbols
+  // > 2), each cell filled with probability density. Copies are made
+  // of some strings so equal elements are not always the same object.
+  static String[][] random(Random random, int rows, int cols, double density, int symbols)
+  {
+    String[][] x = new String[rows][cols];
+    for(int i = 0; i < rows; i++)
+    {
+      for(int j = 0; j < cols; j++)
+      {
+        String e = ".";
+        if(random.nextDouble() < density)
+          e = symbols == 1 ? "X" : symbols == 2 ? (random.nextBoolean() ? "X" : "O") : "s" + random.nextInt(symbols);
+        x[i][j] = random.nextInt(4) == 0 ? new String(e) : e;
+      }
+    }
+    return x;
+  }
+
+  static boolean loadsAsSet(String[][] x)
+  {
+    DenseBoard<String> loaded = new DenseBoard<String>(x, ".");
+    DenseBoard<String> set = new DenseBoard<String>(0, x.length-1, 0, x[0].length-1, ".");
+    for(int i = 0; i < x.length; i++)
+    {
+      for(int j = 0; j < x[0].length; j++)
+        set.set(i, j, x[i][j]);
+    }
+    return sameBoard(loaded, set);
+  }
+
+  public static void main(String args[])
+  {
+    Random random = new Random(30);
+    int small = 0, smallSame = 0;
+    for(int n = 0; n < 2000; n++)
+    {
+      String[][] x = random(random, 1 + random.nextInt(25), 1 + random.nextInt(25), random.nextDouble(), 1 + random.nextInt(3));
+      small++;
+      if(loadsAsSet(x))
+        smallSame++;
+    }
+    check("small arrays load as set() does (" + smallSame + "/" + small + ")", smallSame == small);
+
+    //Arrays split over several fork-join tasks, dense enough for runs
+    //to cross from one task's rows into the next
+    int large = 0, largeSame = 0;
+    for(int n = 0; n < 20; n++)
+    {
+      int cols = 20 + random.nextInt(100);
+      int rows = 3*(DenseBoard.BULK_GRAIN/cols) + random.nextInt(100);
+      String[][] x = random(random, rows, cols, 0.6 + 0.4*random.nextDouble(), 1 + random.nextInt(2));
+      large++;
+      if(loadsAsSet(x))
+        largeSame++;
+    }
+    check("arrays split across tasks load as set() does (" + largeSame + "/" + large + ")", largeSame == large);
+
+    //More distinct elements than the bulk load remembers by identity
+    String[][] many = random(random, 60, 60, 0.9, 400);
+    check("many distinct elements load as set() does", loadsAsSet(many));
+
+    finish();
+  }
+
+}
@@ -0,0 +1,46 @@
+// Shared scaffolding for the check programs such as DenseBoardTest:
+// each extends this class, calls check() once per check and finish()
+// at the end of main(), so it prints a line per check and exits with
+// status 1 if any fails.
+public class Checks
+{
+  static int failures = 0;
+
+  static void check(String name, boolean ok)
+  {
+    System.out.println((ok ? "ok    " : "FAIL  ") + name);
+    if(!ok)
+      failures++;
+  }
+
+  // True if two boards have the same extent, fill element, cells and
+  // longest sequence, so either could stand in for the other
+  static <T> boolean sameBoard(ExpandableBoard<T> a, ExpandableBoard<T> b)
+  {
+    if(a.getMinRow() != b.getMinRow() || a.getMaxRow() != b.getMaxRow()
+       || a.getMinCol() != b.getMinCol() || a.getMaxCol() != b.getMaxCol()
+       || !a.getFillElem().equals(b.getFillElem()))
+      return false;
+    for(int r = a.getMinRow(); r <= a.getMaxRow(); r++)
+    {
+      for(int c = a.getMinCol(); c <= a.getMaxCol(); c++)
+      {
+        if(!a.get(r, c).equals(b.get(r, c)))
+          return false;
+      }
+    }
+    return a.getLongestSequence().equals(b.getLongestSequence());
+  }
+
+  // Report the failures, if any, and exit with status 1 when there
+  // were some. Call at the end of main().
+  static void finish()
+  {
+    if(failures > 0)
+    {
+      System.out.println(failures + " checks failed");
+      System.exit(1);
+    }
+  }
+
+}
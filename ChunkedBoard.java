@@ -0,0 +1,467 @@
+import java.util.*;
+
+// An ExpandableBoard made of fixed size square tiles which are only
+// allocated when an element is first set inside them. Each tile holds
+// TILE*TILE one byte cell codes (see SymbolTable) and keeps pointers
+// to its eight neighbouring tiles, so sequence scans step across tile
+// borders without going back to the tile directory.
+//
+// Unlike DenseBoard, expanding the board only changes its extent: no
+// memory is touched until a set lands in a new tile. Play that is
+// spread out over thousands of rows and columns costs one tile per
+// occupied area instead of one huge rectangle.
+public class ChunkedBoard<T> implements ExpandableBoard<T>
+{
+  static final int SHIFT = 4; //Tiles are 16x16
+  static final int TILE = 1 << SHIFT;
+  static final int MASK = TILE-1;
+  static final int MAX_SYMBOLS = 255;
+
+  //Row/col steps of the four sequence directions, in the order
+  //DenseBoard prefers them when a set completes several equally long
+  //sequences: down-right diagonal, horizontal, down-left diagonal,
+  //vertical
+  static final int[] DROW = {1, 0, 1, 1};
+  static final int[] DCOL = {1, 1, -1, 0};
+
+  // One tile of the board
+  static final class Tile
+  {
+    final int tileRow, tileCol; //Position of the tile; cell row is tileRow*TILE + local row
+    final byte[] cells = new byte[TILE*TILE]; //Row-major cell codes, 0 is empty
+    final Tile[] nbr = new Tile[9]; //Neighbouring tiles indexed by nbrIndex(dr,dc), null if absent
+
+    Tile(int tileRow, int tileCol)
+    {
+      this.tileRow = tileRow;
+      this.tileCol = tileCol;
+    }
+  }
+
+  static int nbrIndex(int dr, int dc)
+  {
+    return (dr+1)*3 + (dc+1);
+  }
+
+  static long key(int tileRow, int tileCol)
+  {
+    return ((long) tileRow << 32) | (tileCol & 0xffffffffL);
+  }
+
+  //Tile directory: open addressing table keyed by key(tileRow,tileCol)
+  long[] keys = new long[64];
+  Tile[] tiles = new Tile[64];
+  int tileCount;
+  Tile lastTile; //Most recently used tile, checked before the directory
+
+  int minRow, maxRow, minCol, maxCol; //Extent of the board
+  T fill; //Fill element
+  SymbolTable<T> symbols = new SymbolTable<T>(MAX_SYMBOLS); //Element <-> cell code
+  BoardListeners<T> listeners = new BoardListeners<T>(); //Listeners told of every change to the board
+
+  //History of sets, one slot per set including the redo tail. Each
+  //entry also records the longest sequence on the board after the set
+  //as the row/col of the cell whose set completed it, the number of
+  //its cells before that one, its direction and its length.
+  int[] histRow = new int[64], histCol = new int[64], seqRow = new int[64], seqCol = new int[64];
+  int[] seqBack = new int[64], seqLen = new int[64];
+  byte[] histCode = new byte[64], seqDir = new byte[64];
+  int histTotal, histTop; //Entries including redo tail, entries that can be undone
+
+  // Create a board with the extent indicated by min/max row/col. No
+  // tiles are allocated until elements are set. The fillElem cannot be
+  // null: passing null for this parameter will result in a
+  // RuntimeException with the message "Cannot set elements to null"
+  //
+  // Runtime: O(1)
+  public ChunkedBoard(int minRow, int maxRow, int minCol, int maxCol, T fillElem)
+  {
+    if(fillElem == null)
+      throw new RuntimeException("Cannot set elements to null");
+    this.minRow = minRow;
+    this.maxRow = maxRow;
+    this.minCol = minCol;
+    this.maxCol = maxCol;
+    fill = fillElem;
+  }
+
+  // Convenience constructor, creates a single cell board at 0,0
+  public ChunkedBoard(T fillElem)
+  {
+    this(0, 0, 0, 0, fillElem);
+  }
+
+  // Find the tile with the given position, null if not allocated
+  //
+  // Complexity: O(1) expected
+  Tile findTile(int tileRow, int tileCol)
+  {
+    Tile t = lastTile;
+    if(t != null && t.tileRow == tileRow && t.tileCol == tileCol)
+      return t;
+    long k = key(tileRow, tileCol);
+    int mask = keys.length-1;
+    for(int i = hash(k) & mask; tiles[i] != null; i = (i+1) & mask)
+    {
+      if(keys[i] == k)
+      {
+        lastTile = tiles[i];
+        return tiles[i];
+      }
+    }
+    return null;
+  }
+
+  static int hash(long k)
+  {
+    k *= 0x9E3779B97F4A7C15L;
+    return (int) (k ^ (k >>> 32));
+  }
+
+  // Allocate the tile at the given position, linking it with any
+  // neighbours that already exist.
+  Tile newTile(int tileRow, int tileCol)
+  {
+    if(2*(tileCount+1) > keys.length)
+      growDirectory();
+    Tile t = new Tile(tileRow, tileCol);
+    insert(t);
+    tileCount++;
+    for(int dr = -1; dr <= 1; dr++)
+    {
+      for(int dc = -1; dc <= 1; dc++)
+      {
+        if(dr == 0 && dc == 0)
+          continue;
+        Tile n = findTile(tileRow+dr, tileCol+dc);
+        if(n != null)
+        {
+          t.nbr[nbrIndex(dr, dc)] = n;
+          n.nbr[nbrIndex(-dr, -dc)] = t;
+        }
+      }
+    }
+    lastTile = t;
+    return t;
+  }
+
+  private void insert(Tile t)
+  {
+    long k = key(t.tileRow, t.tileCol);
+    int mask = keys.length-1;
+    int i = hash(k) & mask;
+    while(tiles[i] != null)
+      i = (i+1) & mask;
+    keys[i] = k;
+    tiles[i] = t;
+  }
+
+  private void growDirectory()
+  {
+    Tile[] old = tiles;
+    keys = new long[old.length*2];
+    tiles = new Tile[old.length*2];
+    for(int i = 0; i < old.length; i++)
+    {
+      if(old[i] != null)
+        insert(old[i]);
+    }
+  }
+
+  // Code of the cell at row/col, 0 if empty
+  int code(int row, int col)
+  {
+    Tile t = findTile(row >> SHIFT, col >> SHIFT);
+    if(t == null)
+      return 0;
+    return t.cells[((row & MASK) << SHIFT) | (col & MASK)] & 0xff;
+  }
+
+  // Count cells after row/col in direction dr,dc which hold code,
+  // following neighbour pointers across tile borders.
+  //
+  // Complexity: O(N) for a run of N cells
+  int runLength(Tile t, int row, int col, int dr, int dc, int code)
+  {
+    int lr = row & MASK, lc = col & MASK;
+    int n = 0;
+    while(true)
+    {
+      lr += dr;
+      lc += dc;
+      if(lr < 0 || lr >= TILE || lc < 0 || lc >= TILE)
+      {
+        int tr = lr < 0 ? -1 : (lr >= TILE ? 1 : 0);
+        int tc = lc < 0 ? -1 : (lc >= TILE ? 1 : 0);
+        t = t.nbr[nbrIndex(tr, tc)];
+        if(t == null)
+          return n;
+        lr &= MASK;
+        lc &= MASK;
+      }
+      if((t.cells[(lr << SHIFT) | lc] & 0xff) != code)
+        return n;
+      n++;
+    }
+  }
+
+  // Access the extent of the board
+  //
+  // Target complexity: O(1)
+  public int getMinRow()
+  {
+    return minRow;
+  }
+
+  public int getMaxRow()
+  {
+    return maxRow;
+  }
+
+  public int getMinCol()
+  {
+    return minCol;
+  }
+
+  public int getMaxCol()
+  {
+    return maxCol;
+  }
+
+  // Number of tiles allocated. This method is not part of the
+  // ExpandableBoard interface.
+  //
+  // Target complexity: O(1)
+  public int getTileCount()
+  {
+    return tileCount;
+  }
+
+  // Retrieve/change the fill element
+  //
+  // Target complexity: O(1)
+  public T getFillElem()
+  {
+    return fill;
+  }
+
+  public void setFillElem(T f)
+  {
+    if(f == null)
+      throw new RuntimeException("Cannot set elements to null");
+    T old = fill;
+    fill = f;
+    listeners.fireFillElemChanged(old, f);
+  }
+
+  // Register/unregister a listener for changes to the board
+  public void addBoardListener(BoardListener<T> l)
+  {
+    listeners.add(l);
+  }
+
+  public void removeBoardListener(BoardListener<T> l)
+  {
+    listeners.remove(l);
+  }
+
+  // Retrieve an element at virtual row/col; the fill element is
+  // returned for empty cells and anything beyond the extent.
+  //
+  // Complexity: O(1) expected
+  public T get(int row, int col)
+  {
+    if(row > maxRow || col > maxCol || row < minRow || col < minCol)
+      return fill;
+    int c = code(row, col);
+    if(c == 0)
+      return fill;
+    return symbols.symbol(c);
+  }
+
+  // Retrieve the longest sequence present on the board, rebuilt from
+  // what was recorded with the last set in DenseBoard's order: the
+  // cell whose set completed it, the cells before it nearest first,
+  // then the cells after it nearest first.
+  //
+  // Target Complexity: O(L)
+  //   L: length of the longest sequence
+  public List< RowColElem<T> > getLongestSequence()
+  {
+    List<RowColElem<T>> seq = new ArrayList<RowColElem<T>>();
+    if(histTop == 0)
+      return seq;
+    int e = histTop-1;
+    int dir = seqDir[e];
+    int back = seqBack[e];
+    seq.add(new RowColElem<T>(seqRow[e], seqCol[e], get(seqRow[e], seqCol[e])));
+    for(int i = 1; i <= back; i++)
+    {
+      int r = seqRow[e] - i*DROW[dir];
+      int c = seqCol[e] - i*DCOL[dir];
+      seq.add(new RowColElem<T>(r, c, get(r, c)));
+    }
+    for(int i = 1; i < seqLen[e]-back; i++)
+    {
+      int r = seqRow[e] + i*DROW[dir];
+      int c = seqCol[e] + i*DCOL[dir];
+      seq.add(new RowColElem<T>(r, c, get(r, c)));
+    }
+    return seq;
+  }
+
+  // Set element at row/col to x, expanding the board if needed. Same
+  // contract as DenseBoard.set(). Allocates the tile holding row/col
+  // if it does not exist yet.
+  //
+  // Target Complexity: O(L) expected
+  //   L: the length of the longest sequence through row/col
+  public void set(int row, int col, T x)
+  {
+    if(x == null)
+      throw new RuntimeException("Cannot set elements to null");
+    if(!get(row, col).equals(fill))
+      throw new RuntimeException("Element " + row + " " + col + " already set to " + get(row, col));
+    if(x.equals(fill))
+      return;
+
+    int c = symbols.code(x);
+    expandToInclude(row, col);
+    Tile t = findTile(row >> SHIFT, col >> SHIFT);
+    if(t == null)
+      t = newTile(row >> SHIFT, col >> SHIFT);
+    t.cells[((row & MASK) << SHIFT) | (col & MASK)] = (byte) c;
+
+    if(histTop == histRow.length)
+      growHistory();
+    int e = histTop;
+    //Longest sequence so far, replaced only by a strictly longer one
+    int bestDir = 0, bestRow = 0, bestCol = 0, bestBack = 0, bestLen = 0;
+    if(e > 0)
+    {
+      bestDir = seqDir[e-1];
+      bestRow = seqRow[e-1];
+      bestCol = seqCol[e-1];
+      bestBack = seqBack[e-1];
+      bestLen = seqLen[e-1];
+    }
+    for(int d = 0; d < 4; d++)
+    {
+      int back = runLength(t, row, col, -DROW[d], -DCOL[d], c);
+      int fwd = runLength(t, row, col, DROW[d], DCOL[d], c);
+      if(back+fwd+1 > bestLen)
+      {
+        bestLen = back+fwd+1;
+        bestDir = d;
+        bestRow = row;
+        bestCol = col;
+        bestBack = back;
+      }
+    }
+    histRow[e] = row;
+    histCol[e] = col;
+    histCode[e] = (byte) c;
+    seqDir[e] = (byte) bestDir;
+    seqRow[e] = bestRow;
+    seqCol[e] = bestCol;
+    seqBack[e] = bestBack;
+    seqLen[e] = bestLen;
+    histTop++;
+    histTotal = histTop;
+    listeners.fireSet(row, col, x);
+  }
+
+  private void growHistory()
+  {
+    int n = histRow.length*2;
+    histRow = Arrays.copyOf(histRow, n);
+    histCol = Arrays.copyOf(histCol, n);
+    histCode = Arrays.copyOf(histCode, n);
+    seqDir = Arrays.copyOf(seqDir, n);
+    seqRow = Arrays.copyOf(seqRow, n);
+    seqCol = Arrays.copyOf(seqCol, n);
+    seqBack = Arrays.copyOf(seqBack, n);
+    seqLen = Arrays.copyOf(seqLen, n);
+  }
+
+  // Ensure row/col is within the extent of the board, returning the
+  // number of cells added to the extent. Only the extent changes;
+  // tiles are allocated by set().
+  //
+  // Target Complexity: O(1)
+  public int expandToInclude(int row, int col)
+  {
+    long initArea = (long) (maxRow-minRow+1) * (maxCol-minCol+1);
+    minRow = Math.min(minRow, row);
+    maxRow = Math.max(maxRow, row);
+    minCol = Math.min(minCol, col);
+    maxCol = Math.max(maxCol, col);
+    long finalArea = (long) (maxRow-minRow+1) * (maxCol-minCol+1);
+    if(finalArea != initArea)
+      listeners.fireExtentChanged(minRow, maxRow, minCol, maxCol);
+    return (int) Math.min(finalArea-initArea, Integer.MAX_VALUE);
+  }
+
+  // Undo the last set; same contract as DenseBoard.undoSet()
+  //
+  // Target Complexity: O(1) expected
+  public void undoSet()
+  {
+    if(histTop == 0)
+      throw new RuntimeException("Undo history is empty");
+    histTop--;
+    int row = histRow[histTop], col = histCol[histTop];
+    findTile(row >> SHIFT, col >> SHIFT).cells[((row & MASK) << SHIFT) | (col & MASK)] = 0;
+    listeners.fireUndone(row, col, symbols.symbol(histCode[histTop] & 0xff));
+  }
+
+  // Redo an undone set; same contract as DenseBoard.redoSet()
+  //
+  // Target Complexity: O(1) expected
+  public void redoSet()
+  {
+    if(histTop == histTotal)
+      throw new RuntimeException("Redo history is empty");
+    int row = histRow[histTop], col = histCol[histTop];
+    findTile(row >> SHIFT, col >> SHIFT).cells[((row & MASK) << SHIFT) | (col & MASK)] = histCode[histTop];
+    histTop++;
+    listeners.fireRedone(row, col, symbols.symbol(histCode[histTop-1] & 0xff));
+  }
+
+  // toString() - create a pretty representation of board in the same
+  // format as DenseBoard.
+  //
+  // Target Complexity: O(R*C)
+  public String toString()
+  {
+    StringBuilder lines = new StringBuilder(); //+---+---+.....
+    StringBuilder top = new StringBuilder(); //Top row
+    top.append("    ");
+    lines.append("  ");
+    for(int k = minCol; k <= maxCol; k++)
+    {
+      top.append("|" + String.format("%3s", k));
+      lines.append("+---");
+    }
+    top.append("|");
+    lines.append("+");
+    StringBuilder toStr = new StringBuilder();
+    toStr.append(top);
+    toStr.append("\n");
+    toStr.append("  ");
+    toStr.append(lines);
+    toStr.append("\n");
+    for(int i = minRow; i <= maxRow; i++){
+      toStr.append(String.format("%3s", i) + " |");
+      for(int j = minCol; j <= maxCol; j++){
+        toStr.append(String.format("%3s", get(i, j)) + "|");
+      }
+      toStr.append("\n");
+      toStr.append("  ");
+      toStr.append(lines);
+      toStr.append("\n");
+    }
+    return toStr.toString();
+  }
+
+}
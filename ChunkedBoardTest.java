@@ -0,0 +1,80 @@
+import java.util.*;
+
+// Checks ChunkedBoard against DenseBoard, run with: java ChunkedBoardTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class ChunkedBoardTest extends Checks
+{
+  public static void main(String args[])
+  {
+    Random random = new Random(28);
+    int games = 300, differ = 0, tiles = 0;
+    for(int g = 0; g < games; g++)
+    {
+      //Small games cross tile borders often; every tenth is spread out
+      int spread = g % 10 == 0 ? 200 : 12;
+      DenseBoard<String> dense = new DenseBoard<String>(0, 3, 0, 3, ".");
+      ChunkedBoard<String> chunked = new ChunkedBoard<String>(0, 3, 0, 3, ".");
+      boolean same = true;
+      for(int move = 0; move < 80 && same; move++)
+      {
+        int op = random.nextInt(10);
+        if(op == 0)
+        {
+          try
+          {
+            dense.undoSet();
+          }
+          catch(RuntimeException e)
+          {
+            continue;
+          }
+          chunked.undoSet();
+        }
+        else if(op == 1)
+        {
+          try
+          {
+            dense.redoSet();
+          }
+          catch(RuntimeException e)
+          {
+            continue;
+          }
+          chunked.redoSet();
+        }
+        else
+        {
+          int row = random.nextInt(spread) - spread/2, col = random.nextInt(spread) - spread/2;
+          if(!dense.get(row, col).equals("."))
+            continue;
+          String x = random.nextBoolean() ? "X" : "O";
+          dense.set(row, col, x);
+          chunked.set(row, col, x);
+        }
+        same = sameBoard(dense, chunked);
+      }
+      if(!same)
+        differ++;
+      tiles = Math.max(tiles, chunked.getTileCount());
+    }
+    check("set/undo/redo matches DenseBoard in " + games + " games", differ == 0);
+    check("spread out games use several tiles", tiles > 1);
+
+    ChunkedBoard<String> board = new ChunkedBoard<String>(".");
+    board.set(0, 0, "X");
+    boolean threw = false;
+    try
+    {
+      board.setFillElem(null);
+    }
+    catch(RuntimeException e)
+    {
+      threw = e.getMessage().equals("Cannot set elements to null");
+    }
+    check("null fill element is rejected", threw && board.get(1, 1).equals("."));
+
+    finish();
+  }
+
+}
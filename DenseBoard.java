@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.*;
 
 public class DenseBoard<T> implements ExpandableBoard<T>
 {
@@ -10,8 +11,11 @@ public class DenseBoard<T> implements ExpandableBoard<T>
   Stack<RowColElem<T>> redo = new Stack<RowColElem<T>>(); //Redo tracker (stack)
   Stack<List<RowColElem<T>>> sequence = new Stack<List<RowColElem<T>>>(); //Sequence tracker (stack of lists)
   Stack<List<RowColElem<T>>> redSeq = new Stack<List<RowColElem<T>>>(); //Redo sequence tracker(stack of lists)
-  
-  boolean twoD = false; //Boolean variable for determining whether a 2d array is calling set or user is calling set
+  BoardListeners<T> listeners = new BoardListeners<T>(); //Listeners told of every change to the board
+  int liveCount = 0; //Number of explicitly set elements currently on the board
+  double compactThreshold = 0.0; //Occupancy below which undoSet() compacts the board, 0 disables
+  int compactSlack = 2; //Empty rows/cols kept around the elements when compacting
+  int compactAt = Integer.MAX_VALUE; //undoSet() compacts only once liveCount is at or below this
   
   // Workhorse constructor, create initial space indicated by min/max
   // row/col. Initially any get() should return the fillElem
@@ -60,6 +64,15 @@ public class DenseBoard<T> implements ExpandableBoard<T>
   // Convenience 2-arg constructor, creates a board with given fill
   // element and copies elements from T 2-D array. Assumes upper left
   // is coordinate 0,0 and lower right is size of 2-D array
+  //
+  // Rather than calling set() for every element, the array is bulk
+  // loaded: rows are copied and swept for their runs in a single
+  // row-major pass, split by rows across the common fork-join pool.
+  // The resulting longest sequence is the same one repeated row-major
+  // set() calls would find. The loaded elements are not part of the
+  // undo history.
+  //
+  // Runtime: O(R * C) work, split across available cores
   public DenseBoard(T[][] x, T fillElem)
   {
     minXBound = 0;
@@ -67,31 +80,236 @@ public class DenseBoard<T> implements ExpandableBoard<T>
     maxXBound = x[0].length-1;
     maxYBound = x.length-1;
     fill = fillElem;
-    twoD = true;
+    bulkLoad(x);
+  }
+  
+  //Rows handled by one fork-join leaf task are at least this many
+  //cells in total
+  static final int BULK_GRAIN = 1 << 14;
+  
+  //Row/col steps of the directions swept by bulkLoad(), in the order
+  //set() prefers them when a cell completes several equally long
+  //sequences: down-right diagonal, horizontal, down-left diagonal,
+  //vertical. Every step moves forward in row-major order.
+  static final int[] BULK_DROW = {1, 0, 1, 1};
+  static final int[] BULK_DCOL = {1, 1, -1, 0};
+  
+  // Copy x into the board and work out the longest sequence in one
+  // parallel row-major pass.
+  //
+  // set() called on cells in row-major order records a new longest
+  // sequence only when one strictly longer than any before is
+  // completed, so the sequence kept is the longest one whose last cell
+  // in row-major order comes first, with ties at the same cell broken
+  // by direction. The pass finds exactly that sequence and lists it
+  // from its last cell backwards as set() would.
+  void bulkLoad(T[][] x)
+  {
+    int rows = maxYBound+1;
+    int cols = maxXBound+1;
+    @SuppressWarnings({"unchecked","rawtypes"})
+    ArrayList<T>[] copied = new ArrayList[rows];
+    int[] rowLive = new int[rows];
+    long[] best = ForkJoinPool.commonPool().invoke(new RowSweep(x, copied, rowLive, 0, rows, Math.max(1, BULK_GRAIN/cols)));
+    for(int i = 0; i < rows; i++)
+    {
+      board.add(copied[i]);
+      liveCount += rowLive[i];
+    }
+    if(best == null)
+      return;
+    
+    sequenceLength = (int) best[0];
+    int d = (int) best[2];
+    int r = (int) (best[1] / cols);
+    int c = (int) (best[1] % cols);
+    List<RowColElem<T>> seq = new ArrayList<RowColElem<T>>();
+    for(int i = 0; i < sequenceLength; i++)
+      seq.add(new RowColElem<T>(r - i*BULK_DROW[d], c - i*BULK_DCOL[d], x[r][c]));
+    sequence.push(seq);
+  }
+  
+  // Pick the better of two sweep results {length, row-major index of
+  // last cell, direction}; either may be null
+  static long[] better(long[] a, long[] b)
+  {
+    if(a == null)
+      return b;
+    if(b == null)
+      return a;
+    if(a[0] != b[0])
+      return a[0] > b[0] ? a : b;
+    if(a[1] != b[1])
+      return a[1] < b[1] ? a : b;
+    return a[2] <= b[2] ? a : b;
+  }
+  
+  // Copies rows [lo,hi) of the source array into board rows, storing
+  // null for fill elements and counting the other elements of each
+  // row, and finds the best run ending in those rows, returned as
+  // {length, row-major index of last cell, direction} or null if the
+  // rows are empty.
+  //
+  // The rows are walked once in row-major order. Each cell is given a
+  // small int code for its element (0 for the fill element), found by
+  // identity among the elements already seen before falling back on
+  // equals(), so neighbours are compared as ints. For each cell the
+  // length of the run ending there in every direction comes from its
+  // left neighbour and from the three neighbours in the row above,
+  // whose codes and run lengths are kept in per-column arrays, so no
+  // line is walked cell by cell across rows. Only the first row of a
+  // task walks back into the rows above it to pick up runs crossing
+  // into it.
+  class RowSweep extends RecursiveTask<long[]>
+  {
+    private static final long serialVersionUID = 1L;
+
+    T[][] x;
+    ArrayList<T>[] out;
+    int[] live;
+    int lo, hi, grain;
+    Object[] seen = new Object[16]; //Element objects met so far, with their codes in seenCode
+    int[] seenCode = new int[16];
+    int seenCount, codes;
+    
+    RowSweep(T[][] x, ArrayList<T>[] out, int[] live, int lo, int hi, int grain)
+    {
+      this.x = x;
+      this.out = out;
+      this.live = live;
+      this.lo = lo;
+      this.hi = hi;
+      this.grain = grain;
+    }
+    
+    // Equal elements; boards mostly repeat a few element objects, so
+    // identity is checked before equals()
+    private boolean same(T a, T b)
+    {
+      return a == b || a.equals(b);
+    }
     
-     for(int i = 0; i <= maxYBound; i++)
+    // Code of e: 0 for the fill element, otherwise 1,2,3,... in order of
+    // first appearance. Distinct objects equal to an element seen
+    // before are remembered too, up to a limit, so repeats of them are
+    // found by identity.
+    private int code(T e)
     {
-      ArrayList<T> bound2 = new ArrayList<T>();
-      for(int j = 0; j <= maxXBound; j++)
+      for(int k = 0; k < seenCount; k++)
+      {
+        if(seen[k] == e)
+          return seenCode[k];
+      }
+      int c = -1;
+      if(e.equals(fill))
+        c = 0;
+      for(int k = 0; k < seenCount && c < 0; k++)
+      {
+        if(e.equals(seen[k]))
+          c = seenCode[k];
+      }
+      if(c < 0)
+        c = ++codes;
+      if(seenCount == seen.length && seenCount < 256)
+      {
+        seen = Arrays.copyOf(seen, seenCount*2);
+        seenCode = Arrays.copyOf(seenCode, seenCount*2);
+      }
+      if(seenCount < seen.length)
       {
-          bound2.add(null);
-         // bound2.add(x[i][j]);
-        //   board.get(i).add(x[i][j]); 
+        seen[seenCount] = e;
+        seenCode[seenCount++] = c;
       }
-      board.add(bound2);
+      return c;
     }
-     
-    for(int i = 0; i <= maxYBound; i++)
+    
+    // Length of the run of e ending at row/col in direction d
+    private int runBack(int row, int col, int d, T e)
+    {
+      int n = 1;
+      for(int r = row - BULK_DROW[d], c = col - BULK_DCOL[d]; r >= 0 && c >= 0 && c <= maxXBound && same(x[r][c], e);
+          r -= BULK_DROW[d], c -= BULK_DCOL[d])
+        n++;
+      return n;
+    }
+    
+    protected long[] compute()
     {
-      for(int j = 0; j <= maxXBound; j++)
+      if(hi - lo > grain)
+      {
+        int mid = (lo + hi) >>> 1;
+        RowSweep left = new RowSweep(x, out, live, lo, mid, grain);
+        left.fork();
+        long[] right = new RowSweep(x, out, live, mid, hi, grain).compute();
+        return better(left.join(), right);
+      }
+      int cols = maxXBound+1;
+      seen[seenCount] = fill;
+      seenCode[seenCount++] = 0;
+      //Codes, and run lengths by direction (down-right, down-left,
+      //vertical), of each column of the row above and of this row; the
+      //code arrays have an empty column either side
+      int[] codeAbove = new int[cols+2], codeHere = new int[cols+2];
+      int[][] above = new int[3][cols], here = new int[3][cols];
+      long bestLen = 0, bestEnd = 0, bestDir = 0;
+      for(int i = lo; i < hi; i++)
       {
-        if(!x[i][j].equals(fillElem))
-          set(i,j, x[i][j]);
-         // bound2.add(x[i][j]);
-        //   board.get(i).add(x[i][j]); 
+        T[] src = x[i];
+        ArrayList<T> row = new ArrayList<T>(cols);
+        int h = 0; //Horizontal run ending at the current cell
+        for(int j = 0; j < cols; j++)
+        {
+          T e = src[j];
+          int c = code(e);
+          codeHere[j+1] = c;
+          if(c == 0)
+          {
+            row.add(null);
+            h = 0;
+            here[0][j] = here[1][j] = here[2][j] = 0;
+            continue;
+          }
+          row.add(e);
+          live[i]++;
+          h = codeHere[j] == c ? h+1 : 1;
+          int dr, dl, v;
+          if(i == lo)
+          {
+            dr = runBack(i, j, 0, e);
+            dl = runBack(i, j, 2, e);
+            v = runBack(i, j, 3, e);
+          }
+          else
+          {
+            dr = codeAbove[j] == c ? above[0][j-1]+1 : 1;
+            dl = codeAbove[j+2] == c ? above[1][j+1]+1 : 1;
+            v = codeAbove[j+1] == c ? above[2][j]+1 : 1;
+          }
+          here[0][j] = dr;
+          here[1][j] = dl;
+          here[2][j] = v;
+          //Cells are visited in row-major order, so only a strictly
+          //longer run replaces the best; directions in BULK_ order
+          int len = Math.max(Math.max(dr, h), Math.max(dl, v));
+          if(len > bestLen)
+          {
+            bestLen = len;
+            bestEnd = (long) i*cols + j;
+            bestDir = len == dr ? 0 : len == h ? 1 : len == dl ? 2 : 3;
+          }
+        }
+        out[i] = row;
+        int[][] t = above;
+        above = here;
+        here = t;
+        int[] tc = codeAbove;
+        codeAbove = codeHere;
+        codeHere = tc;
       }
+      if(bestLen == 0)
+        return null;
+      return new long[]{bestLen, bestEnd, bestDir};
     }
-    twoD = false;
   }
   
   // Access the extent of the board: all explicitly set elements are
@@ -134,7 +352,25 @@ public class DenseBoard<T> implements ExpandableBoard<T>
   // Target complexity: O(1)
   public void setFillElem(T f)
   {
+    T old = fill;
     fill = f; 
+    listeners.fireFillElemChanged(old, f);
+  }
+  
+  // Register/unregister a listener for changes to the board. Every
+  // set, undo, redo, expansion and fill element change is reported to
+  // registered listeners once the board has been updated.
+  //
+  // Target complexity: O(N)
+  //   N: number of registered listeners
+  public void addBoardListener(BoardListener<T> l)
+  {
+    listeners.add(l);
+  }
+  
+  public void removeBoardListener(BoardListener<T> l)
+  {
+    listeners.remove(l);
   }
   
   // Retrieve the longest sequence present on the board. If there is a
@@ -245,11 +481,13 @@ public class DenseBoard<T> implements ExpandableBoard<T>
     
     int increment = expandToInclude(row, col); //Number of elements expanded
     board.get(row-minYBound).set(col-minXBound, x);
-    if(!twoD)
+    liveCount++;
+    compactAt = Math.max(compactAt, liveCount/2);
     undo.push(new RowColElem(row, col, x));
     
     while(redo.size() > 0)
       redo.pop();
+    redSeq.clear();
     
     boolean pos = true;
     //Below are x, y, up diagonal and down diagonal lists used to keep track of sequence
@@ -394,6 +632,7 @@ public class DenseBoard<T> implements ExpandableBoard<T>
     {
       sequence.push(sequence.peek());
     }
+    listeners.fireSet(row, col, x);
   }  
   
   
@@ -538,20 +777,115 @@ public class DenseBoard<T> implements ExpandableBoard<T>
       }
     } 
     int finalArea = (1+(maxYBound - minYBound)) * (1+(maxXBound - minXBound));
+    if(finalArea != initArea)
+    {
+      compactAt = Integer.MAX_VALUE;
+      listeners.fireExtentChanged(minYBound, maxYBound, minXBound, maxXBound);
+    }
     return (finalArea-initArea);
   }
   
+  // Shrink the board to the smallest rectangle holding every element
+  // currently set, plus a margin of empty rows and columns (the slack
+  // set with setCompaction(), 2 by default), releasing the memory of
+  // everything outside it. The board never grows as a result and
+  // elements keep their virtual row/col: an X at (1,2) is still
+  // returned by get(1,2) afterwards. Undo and redo history is kept; a
+  // redo of an element outside the compacted extent expands the board
+  // again. A board with no elements set shrinks to the single cell at
+  // its min row/col. This method is not part of the ExpandableBoard
+  // interface.
+  //
+  // Returns the number of cells released.
+  //
+  // Target Complexity: O(R*C)
+  public int compact()
+  {
+    int top = Integer.MAX_VALUE, bottom = Integer.MIN_VALUE;
+    int left = Integer.MAX_VALUE, right = Integer.MIN_VALUE;
+    for(int i = 0; i < board.size(); i++)
+    {
+      ArrayList<T> row = board.get(i);
+      for(int j = 0; j < row.size(); j++)
+      {
+        if(row.get(j) != null)
+        {
+          top = Math.min(top, i + minYBound);
+          bottom = Math.max(bottom, i + minYBound);
+          left = Math.min(left, j + minXBound);
+          right = Math.max(right, j + minXBound);
+        }
+      }
+    }
+    if(top == Integer.MAX_VALUE)
+    {
+      top = bottom = minYBound;
+      left = right = minXBound;
+    }
+    else
+    {
+      top = Math.max(minYBound, top - compactSlack);
+      bottom = Math.min(maxYBound, bottom + compactSlack);
+      left = Math.max(minXBound, left - compactSlack);
+      right = Math.min(maxXBound, right + compactSlack);
+    }
+    if(top == minYBound && bottom == maxYBound && left == minXBound && right == maxXBound)
+      return 0;
+    
+    int initArea = (1+(maxYBound - minYBound)) * (1+(maxXBound - minXBound));
+    ArrayList<ArrayList<T>> compacted = new ArrayList<ArrayList<T>>(bottom-top+1);
+    for(int i = top; i <= bottom; i++)
+    {
+      ArrayList<T> row = board.get(i-minYBound);
+      ArrayList<T> kept = new ArrayList<T>(right-left+1);
+      kept.addAll(row.subList(left-minXBound, right-minXBound+1));
+      compacted.add(kept);
+    }
+    board = compacted;
+    minYBound = top;
+    maxYBound = bottom;
+    minXBound = left;
+    maxXBound = right;
+    listeners.fireExtentChanged(minYBound, maxYBound, minXBound, maxXBound);
+    return initArea - (1+(maxYBound - minYBound)) * (1+(maxXBound - minXBound));
+  }
+  
+  // Set the automatic compaction policy: after each undoSet(), if the
+  // fraction of the board's cells holding elements has fallen below
+  // threshold, compact() is called. A threshold of 0 (the default)
+  // disables automatic compaction. slack is the margin of empty rows
+  // and columns compact() keeps around the elements.
+  //
+  // A sparse board stays below the threshold after compacting, and its
+  // extent may not shrink at all while outlying elements remain, so
+  // after each automatic compaction the next waits until the number of
+  // elements has halved from the most there have been since, or until
+  // the board has been expanded again; undoing n elements costs
+  // O(log n) compactions rather than n.
+  //
+  // Target Complexity: O(1)
+  public void setCompaction(double threshold, int slack)
+  {
+    if(slack < 0)
+      throw new RuntimeException("Compaction slack cannot be negative");
+    compactThreshold = threshold;
+    compactSlack = slack;
+    compactAt = Integer.MAX_VALUE;
+  }
+  
   // Undo an explicit set(row,col,x) operation by changing an element
   // to its previous state.  Repeated calls to undoSet() can be made
   // to restore the board to an earlier state.  Each call to undoSet()
   // enables a call to redoSet() to be made to move forward in the
   // history of the board state. Calls to undoSet() do not change the
-  // extent of boards: they do not shrink to a smaller size once grown
-  // even after an undo call.  If there are no sets to undo, this
-  // method throws a runtime exception with the message
+  // extent of boards unless automatic compaction has been enabled
+  // with setCompaction(), in which case the board is compacted once
+  // its occupancy falls below the threshold (and again each time the
+  // number of elements halves or the board is expanded).  If there are no sets to
+  // undo, this method throws a runtime exception with the message
   // "Undo history is empty"
   //
-  // Target Complexity: O(1) (worst case)
+  // Target Complexity: O(1) (worst case) without automatic compaction
   
   //Runtime complexity is O(1) because there are only 3 operations taking place here:
   //Pushing, popping off the undo/redo stack and setting values in an arraylist. Because each are all
@@ -562,8 +896,17 @@ public class DenseBoard<T> implements ExpandableBoard<T>
       throw new RuntimeException("Undo history is empty");
     RowColElem<T> ne = undo.pop();
     redSeq.push(sequence.pop());
+    sequenceLength = sequence.size() == 0 ? 0 : sequence.peek().size();
     redo.push(ne); 
     board.get(ne.getRow()-minYBound).set(ne.getCol()-minXBound, null);
+    liveCount--;
+    listeners.fireUndone(ne.getRow(), ne.getCol(), ne.getElem());
+    if(compactThreshold > 0 && liveCount <= compactAt
+       && liveCount < compactThreshold * getPhysicalRows() * getPhysicalCols())
+    {
+      compact();
+      compactAt = liveCount/2;
+    }
   }
   
   // Redo a set that was undone via undoSet().  Every call to
@@ -574,8 +917,11 @@ public class DenseBoard<T> implements ExpandableBoard<T>
   // there are no moves that can be redone because of a call to set()
   // or undoSet() has not been called, this method generates a
   // RuntimeException with the message "Redo history is empty".
+  // If the board has been compacted since the set was undone, the
+  // board is expanded again to hold the element.
   //
-  // Target Complexity: O(1)
+  // Target Complexity: O(1), or that of expandToInclude() after a
+  // compaction
   
   //Exactly like before, because popping off redo stack, and popping onto undo/redo stack
   //all take constant time (as well as Arraylist.set(...)/Arraylist.get(...)), the entire method
@@ -587,7 +933,12 @@ public class DenseBoard<T> implements ExpandableBoard<T>
     RowColElem<T> xt = redo.pop();
     undo.push(xt);
     sequence.push(redSeq.pop());
+    sequenceLength = sequence.peek().size();
+    expandToInclude(xt.getRow(), xt.getCol());
     board.get(xt.getRow()-minYBound).set(xt.getCol()-minXBound, xt.getElem());
+    liveCount++;
+    compactAt = Math.max(compactAt, liveCount/2);
+    listeners.fireRedone(xt.getRow(), xt.getCol(), xt.getElem());
   }
   
   // toString() - create a pretty representation of board.
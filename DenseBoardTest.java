@@ -0,0 +1,33 @@
+// Checks for DenseBoard compaction, run with: java DenseBoardTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class DenseBoardTest extends Checks
+{
+  public static void main(String args[])
+  {
+    //10x10 board holding 10 stones along its diagonal
+    DenseBoard<String> board = new DenseBoard<String>(0, 9, 0, 9, ".");
+    for(int i = 0; i < 10; i++)
+      board.set(i, i, "X");
+    board.setCompaction(0.3, 2);
+
+    //A stray far-off stone and its undo compacts back every time
+    for(int k = 0; k < 4; k++)
+    {
+      board.set(1000 + k, 1000 + k, "O");
+      check("stray set " + (k+1) + " expands the board", board.getPhysicalRows() > 1000);
+      board.undoSet();
+      //Compacted to the stones plus 2 rows/cols of slack below and right
+      check("stray undo " + (k+1) + " compacts the board",
+            board.getPhysicalRows() == 12 && board.getPhysicalCols() == 12);
+      check("stray undo " + (k+1) + " keeps the stones", "X".equals(board.get(9, 9)) && ".".equals(board.get(1000 + k, 1000 + k)));
+    }
+
+    //Redo after compaction expands the board again
+    board.redoSet();
+    check("redo after compaction restores the stone", "O".equals(board.get(1003, 1003)));
+
+    finish();
+  }
+
+}
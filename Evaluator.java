@@ -0,0 +1,337 @@
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+// Scores positions for a player from the runs on the board and picks
+// the move which leads to the best score.
+//
+// Every maximal run of equal elements in each of the four directions
+// is a feature, classified by whose it is (the player's own or any
+// opponent's), its length (1 to MAX_LEN, longer runs count as
+// MAX_LEN) and how many of its two ends are open (0, 1 or 2). The
+// score of a position is the dot product of the feature counts with a
+// weight vector; weights can be saved to and loaded from a text file
+// with one weight per line, which is what the tuning tool produces.
+//
+// Choosing a move only looks one set ahead: placing an element changes
+// the runs through that cell alone, so each candidate is scored from
+// the change in features along its four lines rather than by
+// rescanning the board.
+public class Evaluator
+{
+  public static final int MAX_LEN = 5; //Runs this long or longer share a feature
+  public static final int FEATURES = 2 * MAX_LEN * 3; //Own/opponent x length x open ends
+
+  //Row/col steps of the four directions: horizontal, vertical,
+  //down-right diagonal, down-left diagonal
+  static final int[] DROW = {0, 1, 1, 1};
+  static final int[] DCOL = {1, 0, 1, -1};
+
+  double[] weights;
+
+  // Create an evaluator with the default hand-picked weights
+  public Evaluator()
+  {
+    this(defaultWeights());
+  }
+
+  // Create an evaluator with the given weights, one per feature
+  public Evaluator(double[] weights)
+  {
+    if(weights.length != FEATURES)
+      throw new RuntimeException("Expected " + FEATURES + " weights, got " + weights.length);
+    this.weights = weights.clone();
+  }
+
+  // Index of the feature for a run
+  public static int feature(boolean own, int len, int open)
+  {
+    return (own ? 0 : MAX_LEN*3) + (Math.min(len, MAX_LEN)-1)*3 + open;
+  }
+
+  // Hand-picked weights: longer and more open runs are worth more, and
+  // an opponent's run counts more heavily than the player's own since
+  // the opponent moves next.
+  public static double[] defaultWeights()
+  {
+    double[] own = {0, 1, 2,   0, 4, 10,   0, 15, 80,   0, 120, 1000,   20000, 20000, 20000};
+    double[] opp = {0, -1, -2,   0, -6, -15,   0, -30, -400,   0, -8000, -15000,   -20000, -20000, -20000};
+    double[] w = new double[FEATURES];
+    System.arraycopy(own, 0, w, 0, own.length);
+    System.arraycopy(opp, 0, w, MAX_LEN*3, opp.length);
+    return w;
+  }
+
+  public double[] getWeights()
+  {
+    return weights.clone();
+  }
+
+  // Load weights from a text file holding one weight per line; blank
+  // lines and lines starting with # are ignored.
+  public static Evaluator load(Path file) throws IOException
+  {
+    List<Double> w = new ArrayList<Double>();
+    for(String line : Files.readAllLines(file))
+    {
+      line = line.trim();
+      if(line.length() > 0 && !line.startsWith("#"))
+        w.add(Double.parseDouble(line));
+    }
+    double[] weights = new double[w.size()];
+    for(int i = 0; i < weights.length; i++)
+      weights[i] = w.get(i);
+    return new Evaluator(weights);
+  }
+
+  // Save weights in the format read by load()
+  public void save(Path file) throws IOException
+  {
+    StringBuilder out = new StringBuilder();
+    out.append("# Evaluator weights: own then opponent runs, by length 1.." + MAX_LEN + " and open ends 0..2\n");
+    for(double w : weights)
+      out.append(w).append("\n");
+    Files.write(file, out.toString().getBytes());
+  }
+
+  // Count the features of every maximal run on the board from the
+  // point of view of player, adding them to out (which must have
+  // FEATURES entries and is not cleared first).
+  //
+  // The board is copied once into a grid of codes and scanned with a
+  // BitLineScanner; boards with more than 255 distinct elements are
+  // scanned cell by cell instead.
+  //
+  // Complexity: O(R*C)
+  public static <T> void features(ExpandableBoard<T> board, T player, int[] out)
+  {
+    SymbolTable<T> symbols = new SymbolTable<T>(255);
+    byte[] codes = LineScanner.snapshot(board, symbols);
+    if(codes == null)
+    {
+      scanFeatures(board, player, out);
+      return;
+    }
+    LineScanner scanner = new BitLineScanner(codes, board.getMaxRow()-board.getMinRow()+1,
+                                             board.getMaxCol()-board.getMinCol()+1);
+    for(int c = 1; c <= symbols.size(); c++)
+      scanner.countFeatures(c, MAX_LEN, out, symbols.symbol(c).equals(player) ? 0 : MAX_LEN*3);
+  }
+
+  // features() by walking every run through get()
+  //
+  // Complexity: O(R*C)
+  static <T> void scanFeatures(ExpandableBoard<T> board, T player, int[] out)
+  {
+    T fill = board.getFillElem();
+    for(int d = 0; d < 4; d++)
+    {
+      int dr = DROW[d], dc = DCOL[d];
+      for(int r = board.getMinRow(); r <= board.getMaxRow(); r++)
+      {
+        for(int c = board.getMinCol(); c <= board.getMaxCol(); c++)
+        {
+          T x = board.get(r, c);
+          if(x.equals(fill))
+            continue;
+          T before = board.get(r-dr, c-dc);
+          if(before.equals(x))
+            continue;
+          int len = 1;
+          while(board.get(r + len*dr, c + len*dc).equals(x))
+            len++;
+          int open = (before.equals(fill) ? 1 : 0) + (board.get(r + len*dr, c + len*dc).equals(fill) ? 1 : 0);
+          out[feature(x.equals(player), len, open)]++;
+        }
+      }
+    }
+  }
+
+  // Score of a set of feature counts
+  public double score(int[] f)
+  {
+    double s = 0;
+    for(int i = 0; i < FEATURES; i++)
+      s += weights[i] * f[i];
+    return s;
+  }
+
+  // Score of the position for player
+  //
+  // Complexity: O(R*C)
+  public <T> double evaluate(ExpandableBoard<T> board, T player)
+  {
+    int[] f = new int[FEATURES];
+    features(board, player, f);
+    return score(f);
+  }
+
+  // Add to delta the change in features caused by player setting an
+  // element at the empty cell row/col. Only runs on the four lines
+  // through the cell change: runs of the player on either side merge
+  // with the new element, and other runs next to it lose an open end.
+  //
+  // Complexity: O(L)
+  //   L: length of the runs next to row/col
+  public static <T> void moveDelta(ExpandableBoard<T> board, T player, int row, int col, int[] delta)
+  {
+    T fill = board.getFillElem();
+    for(int d = 0; d < 4; d++)
+    {
+      int dr = DROW[d], dc = DCOL[d];
+      T left = board.get(row-dr, col-dc);
+      int leftLen = 0, leftOpen = 0;
+      if(!left.equals(fill))
+      {
+        leftLen = 1;
+        while(board.get(row - (leftLen+1)*dr, col - (leftLen+1)*dc).equals(left))
+          leftLen++;
+        leftOpen = board.get(row - (leftLen+1)*dr, col - (leftLen+1)*dc).equals(fill) ? 1 : 0;
+      }
+      T right = board.get(row+dr, col+dc);
+      int rightLen = 0, rightOpen = 0;
+      if(!right.equals(fill))
+      {
+        rightLen = 1;
+        while(board.get(row + (rightLen+1)*dr, col + (rightLen+1)*dc).equals(right))
+          rightLen++;
+        rightOpen = board.get(row + (rightLen+1)*dr, col + (rightLen+1)*dc).equals(fill) ? 1 : 0;
+      }
+      boolean leftOwn = leftLen > 0 && left.equals(player);
+      boolean rightOwn = rightLen > 0 && right.equals(player);
+
+      //Runs next to the cell had it as an open end before the set
+      if(leftLen > 0)
+        delta[feature(leftOwn, leftLen, leftOpen+1)]--;
+      if(rightLen > 0)
+        delta[feature(rightOwn, rightLen, rightOpen+1)]--;
+      if(leftLen > 0 && !leftOwn)
+        delta[feature(false, leftLen, leftOpen)]++;
+      if(rightLen > 0 && !rightOwn)
+        delta[feature(false, rightLen, rightOpen)]++;
+
+      int len = 1 + (leftOwn ? leftLen : 0) + (rightOwn ? rightLen : 0);
+      int open = (leftOwn ? leftOpen : (leftLen > 0 ? 0 : 1)) + (rightOwn ? rightOpen : (rightLen > 0 ? 0 : 1));
+      delta[feature(true, len, open)]++;
+    }
+  }
+
+  // A move chosen by bestMove() with the score of the position after it
+  public static class Move
+  {
+    private int row, col;
+    private double score;
+    private boolean complete;
+
+    Move(int row, int col, double score, boolean complete)
+    {
+      this.row = row;
+      this.col = col;
+      this.score = score;
+      this.complete = complete;
+    }
+
+    public int getRow()
+    {
+      return row;
+    }
+
+    public int getCol()
+    {
+      return col;
+    }
+
+    // Score for the player of the position after the move
+    public double getScore()
+    {
+      return score;
+    }
+
+    // False if the time budget ran out before every candidate was
+    // scored, in which case this is the best of those scored
+    public boolean isComplete()
+    {
+      return complete;
+    }
+
+    public String toString()
+    {
+      return "(" + row + "," + col + ") " + score;
+    }
+  }
+
+  // Choose the best move for player: the empty cell, next to an
+  // element already on the board, after which the position scores
+  // highest for player. On an empty board the move is 0,0. Scoring
+  // stops once System.nanoTime() passes deadline, returning the best
+  // move found so far; pass Long.MAX_VALUE for no limit, which is
+  // never compared with nanoTime() as that may be negative.
+  //
+  // Complexity: O(R*C + K*L)
+  //   K: number of candidate cells
+  public <T> Move bestMove(ExpandableBoard<T> board, T player, long deadline)
+  {
+    T fill = board.getFillElem();
+    int[] base = new int[FEATURES];
+    features(board, player, base);
+    double baseScore = score(base);
+
+    int[] delta = new int[FEATURES];
+    Move best = null;
+    int scored = 0;
+    for(int r = board.getMinRow()-1; r <= board.getMaxRow()+1; r++)
+    {
+      for(int c = board.getMinCol()-1; c <= board.getMaxCol()+1; c++)
+      {
+        if(!board.get(r, c).equals(fill) || !hasNeighbour(board, r, c, fill))
+          continue;
+        if((++scored & 63) == 0 && deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)
+          return new Move(best.row, best.col, best.score, false);
+        Arrays.fill(delta, 0);
+        moveDelta(board, player, r, c, delta);
+        double s = baseScore + score(delta);
+        if(best == null || s > best.score)
+          best = new Move(r, c, s, true);
+      }
+    }
+    if(best == null)
+      best = new Move(0, 0, baseScore, true);
+    return best;
+  }
+
+  static final long BEST_MOVE_SALT = 0x424dL; //Marks cache keys stored by bestMove()
+
+  // bestMove(), looked up in cache first and stored there when
+  // complete, so a position analysed once, in this run or an earlier
+  // one, is answered at once. cache may be null. deadline is as for
+  // bestMove() above, Long.MAX_VALUE for no limit.
+  //
+  // Complexity: O(R*C) when cached
+  public <T> Move bestMove(ExpandableBoard<T> board, T player, long deadline, AnalysisCache cache)
+  {
+    if(cache == null)
+      return bestMove(board, player, deadline);
+    long key = AnalysisCache.key(PositionHash.exactOf(board), player, AnalysisCache.salt(this, BEST_MOVE_SALT));
+    AnalysisCache.Entry e = cache.probe(key);
+    if(e != null && e.hasMove())
+      return new Move(e.getRow(), e.getCol(), e.getScore(), true);
+    Move m = bestMove(board, player, deadline);
+    if(m.isComplete())
+      cache.store(key, m.getScore(), 1, AnalysisCache.EXACT, true, m.getRow(), m.getCol());
+    return m;
+  }
+
+  private static <T> boolean hasNeighbour(ExpandableBoard<T> board, int r, int c, T fill)
+  {
+    for(int dr = -1; dr <= 1; dr++)
+    {
+      for(int dc = -1; dc <= 1; dc++)
+      {
+        if((dr != 0 || dc != 0) && !board.get(r+dr, c+dc).equals(fill))
+          return true;
+      }
+    }
+    return false;
+  }
+
+}
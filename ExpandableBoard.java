@@ -79,6 +79,19 @@ public interface ExpandableBoard<T> {
   // the ability to redo sets.
   public void redoSet();
 
+  // Change Listeners
+  // 
+  // Register a listener which is told of every set, undo, redo,
+  // change of extent and change of fill element made to the board
+  // from then on. Attempting to add a null listener will generate a
+  // RuntimeException with the message "Cannot add null listener"
+  public void addBoardListener(BoardListener<T> l);
+
+  // Stop notifying a listener previously registered with
+  // addBoardListener(). Removing a listener which is not registered
+  // has no effect.
+  public void removeBoardListener(BoardListener<T> l);
+
   // toString() - String representation of board
   // 
   // Boards should override toString to produce a nice looking string
@@ -1,9 +1,18 @@
 import java.util.*;
+import java.nio.file.*;
 
 public class Gomoku {
 
-  public static void main(String args[]){
+  // Optional arguments: a weights file for the hint evaluator, as
+  // written by WeightTuner ("-" for the default weights), a position
+  // index built by PositionIndex for the games command ("-" for none)
+  // and an AnalysisCache file for hints, shared with BatchAnalyzer
+  // ("-" for none)
+  public static void main(String args[]) throws Exception{
     Scanner in = new Scanner(System.in);
+    Evaluator evaluator = args.length > 0 && !args[0].equals("-") ? Evaluator.load(Paths.get(args[0])) : new Evaluator();
+    PositionIndex games = args.length > 1 && !args[1].equals("-") ? PositionIndex.open(Paths.get(args[1])) : null;
+    AnalysisCache cache = args.length > 2 && !args[2].equals("-") ? AnalysisCache.open(Paths.get(args[2]),AnalysisCache.DEFAULT_MEGABYTES) : null;
 
     int winSeqLength = 0;
     while(winSeqLength <= 0){
@@ -34,6 +43,7 @@ public class Gomoku {
     System.out.println();
 
     DenseBoard<String> board = new DenseBoard<String>(1,3,1,3,"");
+    RunIndex<String> runs = new RunIndex<String>(board);
 
     int playerTurn = 1;
     int round = 1;
@@ -83,6 +93,18 @@ public class Gomoku {
         System.out.println("            Examples                                                     ");
         System.out.println("            l          // print the longest sequence                     ");
         System.out.println("            longest    // print the longest sequence                     "); 
+        System.out.println("  t or threats: show the longest sequence of every player, turn continues");
+        System.out.println("            Examples                                                     ");
+        System.out.println("            t          // print each player's longest sequence           ");
+        System.out.println("            threats    // print each player's longest sequence           ");
+        System.out.println("  a or hint: suggest a move for the current player, turn continues       ");
+        System.out.println("            Examples                                                     ");
+        System.out.println("            a          // suggest a move                                 ");
+        System.out.println("            hint       // suggest a move                                 ");
+        System.out.println("  g or games: show archived games which reached this position, turn continues");
+        System.out.println("            Examples                                                     ");
+        System.out.println("            g          // print results of matching games                ");
+        System.out.println("            games      // print results of matching games                ");
       }
 
       else if(move.equals("s") || move.equals("set")){
@@ -159,6 +181,32 @@ public class Gomoku {
                           board.getLongestSequence());
       }      
 
+      else if(move.equals("a") || move.equals("hint")){
+        Evaluator.Move hint = evaluator.bestMove(board,playerSymbols.get(playerTurn),Long.MAX_VALUE,cache);
+        System.out.printf("Suggested move: %d %d (score %.1f)\n",
+                          hint.getRow(),hint.getCol(),hint.getScore());
+      }
+
+      else if(move.equals("g") || move.equals("games")){
+        if(games == null){
+          System.out.println("No position index given; start with: java Gomoku <weights|-> <index>");
+          continue;
+        }
+        long hash = PositionHash.of(board);
+        System.out.printf("Archived games reaching this position: %s\n",games.lookup(hash));
+        for(PositionIndex.Game g : games.games(hash,5)){
+          System.out.printf("  %s\n",g);
+        }
+      }
+
+      else if(move.equals("t") || move.equals("threats")){
+        for(int i=1; i<=nPlayers; i++){
+          String symbol = playerSymbols.get(i);
+          System.out.printf("Player %d (%s) longest %d: %s\n",
+                            i,symbol,runs.getLongestRunLength(symbol),runs.getLongestRun(symbol));
+        }
+      }
+
       else{
         System.out.printf("Unknown command '%s'\n",move);
       }
@@ -0,0 +1,86 @@
+import java.util.*;
+
+// Finds runs of equal elements along the rows, columns and diagonals
+// of a rectangular grid of element codes held in a primitive layout:
+// a byte array in row-major order with code 0 for empty cells. Cells
+// outside the grid count as empty. Codes usually come from a
+// SymbolTable via snapshot().
+//
+// Runs are maximal runs in one of the four directions: horizontal,
+// vertical, down-right diagonal and down-left diagonal, so an element
+// on its own is a run of length 1 in each of the four directions.
+// Empty cells never form runs.
+//
+// ScalarLineScanner walks the grid cell by cell; BitLineScanner works
+// on bit-planes, 64 cells per operation, and is much faster on large
+// grids. Both give identical results.
+public interface LineScanner
+{
+  // Row/col steps of the four directions: horizontal, vertical,
+  // down-right diagonal, down-left diagonal
+  public static final int[] DROW = {0, 1, 1, 1};
+  public static final int[] DCOL = {1, 0, 1, -1};
+
+  // Number of rows and columns of the grid
+  public int getRows();
+
+  public int getCols();
+
+  // Length of the longest run of code in any direction, 0 if code does
+  // not appear on the grid
+  public int longestRun(int code);
+
+  // True if code has a run at least length long in some direction,
+  // which is a win check when length is the winning length. length
+  // must be at least 1 or a RuntimeException with the message "Run
+  // length must be positive" is generated.
+  public boolean hasRun(int code, int length);
+
+  // Number of runs of code at least length long, counted over all four
+  // directions. length must be at least 1 as for hasRun().
+  public int countRuns(int code, int length);
+
+  // Count the runs of code by length and open ends, adding one to
+  // out[offset + (min(len,maxLen)-1)*3 + open] for each run, where open
+  // is the number of its two ends (0, 1 or 2) next to an empty cell.
+  // This is the feature layout used by Evaluator.
+  public void countFeatures(int code, int maxLen, int[] out, int offset);
+
+  // Copy the extent of board into a row-major array of codes, giving
+  // each distinct element other than the fill element a code from
+  // symbols and empty cells code 0. Returns null if the board holds
+  // more distinct elements than fit in a byte (255).
+  //
+  // Complexity: O(R*C)
+  public static <T> byte[] snapshot(ExpandableBoard<T> board, SymbolTable<T> symbols)
+  {
+    int rows = board.getMaxRow()-board.getMinRow()+1;
+    int cols = board.getMaxCol()-board.getMinCol()+1;
+    byte[] codes = new byte[rows*cols];
+    T fill = board.getFillElem();
+    T last = fill; //Boards mostly repeat a few element objects; skip the lookup for a repeat
+    int lastCode = 0;
+    for(int i = 0; i < rows; i++)
+    {
+      for(int j = 0; j < cols; j++)
+      {
+        T x = board.get(board.getMinRow()+i, board.getMinCol()+j);
+        if(x != last)
+        {
+          if(x.equals(fill))
+            lastCode = 0;
+          else
+          {
+            if(symbols.lookup(x) == 0 && symbols.size() == 255)
+              return null;
+            lastCode = symbols.code(x);
+          }
+          last = x;
+        }
+        codes[i*cols + j] = (byte) lastCode;
+      }
+    }
+    return codes;
+  }
+
+}
@@ -0,0 +1,83 @@
+import java.util.*;
+
+// Checks that BitLineScanner and ScalarLineScanner agree, run with:
+// java LineScannerTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class LineScannerTest extends Checks
+{
+  // Add one to mismatches[i] if the two scanners disagree on the grid
+  // in method i: longestRun, hasRun, countRuns, countFeatures
+  static void compare(byte[] codes, int rows, int cols, int symbols, int[] mismatches)
+  {
+    LineScanner bits = new BitLineScanner(codes, rows, cols);
+    LineScanner scalar = new ScalarLineScanner(codes, rows, cols);
+    boolean[] differ = new boolean[4];
+    for(int code = 1; code <= symbols; code++)
+    {
+      if(bits.longestRun(code) != scalar.longestRun(code))
+        differ[0] = true;
+      for(int length = 1; length <= 6; length++)
+      {
+        if(bits.hasRun(code, length) != scalar.hasRun(code, length))
+          differ[1] = true;
+        if(bits.countRuns(code, length) != scalar.countRuns(code, length))
+          differ[2] = true;
+      }
+      int[] a = new int[5*3 + 2], b = new int[5*3 + 2];
+      bits.countFeatures(code, 5, a, 2);
+      scalar.countFeatures(code, 5, b, 2);
+      if(!Arrays.equals(a, b))
+        differ[3] = true;
+    }
+    for(int i = 0; i < 4; i++)
+    {
+      if(differ[i])
+        mismatches[i]++;
+    }
+  }
+
+  public static void main(String args[])
+  {
+    Random random = new Random(36);
+    int[] mismatches = new int[4];
+    int grids = 0;
+
+    //Edge shapes: single cells, single lines and widths around a 64-bit word
+    int[][] shapes = {{1, 1}, {1, 130}, {130, 1}, {3, 63}, {3, 64}, {3, 65}, {64, 64}, {5, 128}};
+    for(int[] shape : shapes)
+    {
+      for(int fill = 0; fill <= 1; fill++)
+      {
+        byte[] codes = new byte[shape[0]*shape[1]];
+        Arrays.fill(codes, (byte) fill);
+        compare(codes, shape[0], shape[1], 1, mismatches);
+        grids++;
+      }
+    }
+
+    //Random grids of random size and density
+    for(int n = 0; n < 2000; n++)
+    {
+      int rows = 1 + random.nextInt(n % 10 == 0 ? 140 : 20);
+      int cols = 1 + random.nextInt(n % 10 == 1 ? 140 : 20);
+      int symbols = 1 + random.nextInt(3);
+      double density = random.nextDouble();
+      byte[] codes = new byte[rows*cols];
+      for(int i = 0; i < codes.length; i++)
+      {
+        if(random.nextDouble() < density)
+          codes[i] = (byte) (1 + random.nextInt(symbols));
+      }
+      compare(codes, rows, cols, symbols, mismatches);
+      grids++;
+    }
+
+    String[] methods = {"longestRun", "hasRun", "countRuns", "countFeatures"};
+    for(int i = 0; i < 4; i++)
+      check(methods[i] + " agrees on " + grids + " grids", mismatches[i] == 0);
+
+    finish();
+  }
+
+}
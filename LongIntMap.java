@@ -0,0 +1,118 @@
+import java.util.*;
+
+// Hash map from long keys to non-negative int values stored in
+// primitive arrays, so lookups on the hot path of a board do not box
+// their keys. Uses open addressing with linear probing; removal shifts
+// later entries back so no tombstones are left behind.
+public class LongIntMap
+{
+  private long[] keys;
+  private int[] vals; //-1 marks an empty slot
+  private int size;
+
+  public LongIntMap()
+  {
+    keys = new long[16];
+    vals = new int[16];
+    Arrays.fill(vals, -1);
+  }
+
+  // Key for a board cell
+  public static long cellKey(int row, int col)
+  {
+    return ((long) row << 32) | (col & 0xffffffffL);
+  }
+
+  private int slot(long k)
+  {
+    k *= 0x9E3779B97F4A7C15L;
+    return (int) (k ^ (k >>> 32)) & (keys.length-1);
+  }
+
+  // Value stored for k, -1 if there is none
+  //
+  // Complexity: O(1) expected
+  public int get(long k)
+  {
+    int mask = keys.length-1;
+    for(int i = slot(k); vals[i] >= 0; i = (i+1) & mask)
+    {
+      if(keys[i] == k)
+        return vals[i];
+    }
+    return -1;
+  }
+
+  // Store v (which must be >= 0) for k, replacing any previous value
+  //
+  // Complexity: O(1) expected (amortized)
+  public void put(long k, int v)
+  {
+    if(v < 0)
+      throw new RuntimeException("Values must be non-negative");
+    if(2*(size+1) > keys.length)
+      rehash(keys.length*2);
+    int mask = keys.length-1;
+    int i = slot(k);
+    while(vals[i] >= 0)
+    {
+      if(keys[i] == k)
+      {
+        vals[i] = v;
+        return;
+      }
+      i = (i+1) & mask;
+    }
+    keys[i] = k;
+    vals[i] = v;
+    size++;
+  }
+
+  // Remove k if present
+  //
+  // Complexity: O(1) expected
+  public void remove(long k)
+  {
+    int mask = keys.length-1;
+    int i = slot(k);
+    while(vals[i] >= 0 && keys[i] != k)
+      i = (i+1) & mask;
+    if(vals[i] < 0)
+      return;
+    vals[i] = -1;
+    size--;
+    //Shift back any entry that can no longer be reached past the hole
+    for(int j = (i+1) & mask; vals[j] >= 0; j = (j+1) & mask)
+    {
+      int home = slot(keys[j]);
+      if(((j - home) & mask) >= ((j - i) & mask))
+      {
+        keys[i] = keys[j];
+        vals[i] = vals[j];
+        vals[j] = -1;
+        i = j;
+      }
+    }
+  }
+
+  public int size()
+  {
+    return size;
+  }
+
+  private void rehash(int n)
+  {
+    long[] oldKeys = keys;
+    int[] oldVals = vals;
+    keys = new long[n];
+    vals = new int[n];
+    Arrays.fill(vals, -1);
+    size = 0;
+    for(int i = 0; i < oldKeys.length; i++)
+    {
+      if(oldVals[i] >= 0)
+        put(oldKeys[i], oldVals[i]);
+    }
+  }
+
+}
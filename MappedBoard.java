@@ -0,0 +1,628 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// An ExpandableBoard whose cells and history live in a memory-mapped
+// file rather than on the Java heap. Cells are stored as one byte
+// codes (0 for empty, 1..255 for the distinct elements placed on the
+// board) so heap usage stays flat however large the board grows.
+//
+// The file holds everything another process needs to follow the
+// game: a header with the extent and history counters, a dictionary
+// with the string form of the fill element and of every element code,
+// the history of sets (including the redo tail), and the cells.  A
+// separate process can open the same file with openReadOnly() and
+// will see the live state of the board as the owning process plays,
+// without any serialization step.
+//
+// File layout (all ints big-endian):
+//   0     header, see the H_ offsets below
+//   64    dictionary, 256 entries of 16 bytes: a length byte followed
+//         by up to 15 bytes of UTF-8; entry 0 is the fill element
+//   4160  history, histCap entries of HIST_ENTRY bytes
+//   ...   cells, physRows*physCols bytes in row-major order
+//
+// The physical window of cells is larger than the extent of the board
+// and grows by doubling, so expansion only touches the file when the
+// window is outgrown. Element toString() forms longer than 15 bytes
+// are truncated in the dictionary; this only affects what readers in
+// other processes see. Files are limited to 2GB.
+public class MappedBoard<T> implements ExpandableBoard<T>
+{
+  static final int MAGIC = 0x474d4b42; //"GMKB"
+  static final int VERSION = 2;
+
+  //Header offsets
+  static final int H_MAGIC = 0, H_VERSION = 4;
+  static final int H_MINROW = 8, H_MAXROW = 12, H_MINCOL = 16, H_MAXCOL = 20;
+  static final int H_ORIGINROW = 24, H_ORIGINCOL = 28, H_PHYSROWS = 32, H_PHYSCOLS = 36;
+  static final int H_HISTCAP = 40, H_HISTTOTAL = 44, H_HISTTOP = 48;
+  static final int H_SYMBOLS = 52, H_GENERATION = 56;
+
+  static final int MAX_SYMBOLS = 255;
+  static final int DICT_OFF = 64, DICT_ENTRY = 16;
+  static final int HIST_OFF = DICT_OFF + (MAX_SYMBOLS+1)*DICT_ENTRY;
+
+  //History entry: row, col, code, direction of longest sequence, 2
+  //bytes padding, then for the longest sequence on the board after
+  //the set the row/col of the cell whose set completed it, the number
+  //of its cells before that one and its length
+  static final int HIST_ENTRY = 28;
+
+  //Row/col steps of the four sequence directions, in the order
+  //DenseBoard prefers them when a set completes several equally long
+  //sequences: down-right diagonal, horizontal, down-left diagonal,
+  //vertical
+  static final int[] DROW = {1, 0, 1, 1};
+  static final int[] DCOL = {1, 1, -1, 0};
+
+  Path path; //File backing the board
+  MappedByteBuffer buf; //Mapping of the whole file
+  boolean readOnly; //True for boards opened with openReadOnly()
+  int minRow, maxRow, minCol, maxCol; //Extent of the board
+  int originRow, originCol; //Virtual row/col of the first physical cell
+  int physRows, physCols; //Size of the physical window of cells
+  int histCap, histTotal, histTop; //History capacity, entries including redo tail, entries that can be undone
+  int generation; //Bumped when the layout or fill element changes so readers can resynchronise
+  int cellOff; //Offset of the cell region
+  T fill; //Fill element
+  SymbolTable<T> symbols = new SymbolTable<T>(MAX_SYMBOLS); //Element <-> cell code
+  BoardListeners<T> listeners = new BoardListeners<T>(); //Listeners told of every change to the board
+
+  // Create a board in the given file, replacing anything already
+  // there, with initial extent indicated by min/max row/col. The
+  // fillElem cannot be null: passing null for this parameter will
+  // result in a RuntimeException with the message "Cannot set
+  // elements to null"
+  //
+  // Runtime: O(R * C)
+  public MappedBoard(Path file, int minRow, int maxRow, int minCol, int maxCol, T fillElem)
+  {
+    if(fillElem == null)
+      throw new RuntimeException("Cannot set elements to null");
+    path = file;
+    fill = fillElem;
+    this.minRow = minRow;
+    this.maxRow = maxRow;
+    this.minCol = minCol;
+    this.maxCol = maxCol;
+    originRow = minRow;
+    originCol = minCol;
+    physRows = maxRow-minRow+1;
+    physCols = maxCol-minCol+1;
+    histCap = 64;
+    cellOff = HIST_OFF + histCap*HIST_ENTRY;
+
+    try(FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, checkedSize(cellOff, physRows, physCols));
+    }
+    catch(IOException e)
+    {
+      throw new RuntimeException("Cannot map board file " + path, e);
+    }
+    buf.putInt(H_MAGIC, MAGIC);
+    buf.putInt(H_VERSION, VERSION);
+    writeDictEntry(0, fill);
+    writeHeader();
+  }
+
+  // Convenience constructor, creates a single cell board at 0,0 in the
+  // given file
+  public MappedBoard(Path file, T fillElem)
+  {
+    this(file, 0, 0, 0, 0, fillElem);
+  }
+
+  // Attach to a board file written by another MappedBoard
+  private MappedBoard(Path file)
+  {
+    path = file;
+    readOnly = true;
+    generation = -1;
+    refresh();
+  }
+
+  // Open a board file which another process (or another MappedBoard
+  // in this process) is writing. The returned board sees the live
+  // state of the file: elements are the strings recorded in the file's
+  // dictionary. Any attempt to change the board generates a
+  // RuntimeException with the message "Board is read-only". A reader
+  // may briefly see a partially updated board while the writer is
+  // growing the file; it resynchronises on the next call.
+  public static MappedBoard<String> openReadOnly(Path file)
+  {
+    return new MappedBoard<String>(file);
+  }
+
+  // Size of a mapping with the given cell offset and window, which
+  // must fit the 2GB limit of a single mapping
+  private static int checkedSize(long cellOff, long rows, long cols)
+  {
+    long size = cellOff + rows*cols;
+    if(size > Integer.MAX_VALUE)
+      throw new RuntimeException("Board too large for mapped file");
+    return (int) size;
+  }
+
+  // Map the first size bytes of the file, growing the file if needed
+  private void map(int size)
+  {
+    try(FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+    {
+      buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+    catch(IOException e)
+    {
+      throw new RuntimeException("Cannot map board file " + path, e);
+    }
+  }
+
+  // Reread the header of a read-only board, remapping the file if the
+  // writer has changed its layout. The writer stores the generation
+  // before the rest of the header, so if it is unchanged once the
+  // layout has been read the layout fits the current mapping;
+  // otherwise the file is remapped and the header read again.
+  @SuppressWarnings("unchecked")
+  private void refresh()
+  {
+    if(!readOnly)
+      return;
+    do
+      readHeader();
+    while(buf.getInt(H_GENERATION) != generation);
+    //Dictionary strings may repeat (equal or truncated toString()
+    //forms), so each entry takes the next code without deduplication
+    int n = buf.getInt(H_SYMBOLS);
+    while(symbols.size() < n)
+      symbols.append((T) readDictEntry(symbols.size()+1));
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readHeader()
+  {
+    if(buf == null || buf.getInt(H_GENERATION) != generation)
+    {
+      try(FileChannel ch = FileChannel.open(path, StandardOpenOption.READ))
+      {
+        buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      }
+      catch(IOException e)
+      {
+        throw new RuntimeException("Cannot map board file " + path, e);
+      }
+      if(buf.getInt(H_MAGIC) != MAGIC || buf.getInt(H_VERSION) != VERSION)
+        throw new RuntimeException("Not a board file: " + path);
+      generation = buf.getInt(H_GENERATION);
+      fill = (T) readDictEntry(0);
+    }
+    minRow = buf.getInt(H_MINROW);
+    maxRow = buf.getInt(H_MAXROW);
+    minCol = buf.getInt(H_MINCOL);
+    maxCol = buf.getInt(H_MAXCOL);
+    originRow = buf.getInt(H_ORIGINROW);
+    originCol = buf.getInt(H_ORIGINCOL);
+    physRows = buf.getInt(H_PHYSROWS);
+    physCols = buf.getInt(H_PHYSCOLS);
+    histCap = buf.getInt(H_HISTCAP);
+    histTotal = buf.getInt(H_HISTTOTAL);
+    histTop = buf.getInt(H_HISTTOP);
+    cellOff = HIST_OFF + histCap*HIST_ENTRY;
+  }
+
+  private void checkWritable()
+  {
+    if(readOnly)
+      throw new RuntimeException("Board is read-only");
+  }
+
+  // Write the header, generation first (see refresh())
+  private void writeHeader()
+  {
+    buf.putInt(H_GENERATION, generation);
+    buf.putInt(H_MINROW, minRow);
+    buf.putInt(H_MAXROW, maxRow);
+    buf.putInt(H_MINCOL, minCol);
+    buf.putInt(H_MAXCOL, maxCol);
+    buf.putInt(H_ORIGINROW, originRow);
+    buf.putInt(H_ORIGINCOL, originCol);
+    buf.putInt(H_PHYSROWS, physRows);
+    buf.putInt(H_PHYSCOLS, physCols);
+    buf.putInt(H_HISTCAP, histCap);
+    buf.putInt(H_HISTTOTAL, histTotal);
+    buf.putInt(H_HISTTOP, histTop);
+    buf.putInt(H_SYMBOLS, symbols.size());
+  }
+
+  private void writeDictEntry(int code, T x)
+  {
+    byte[] b = x.toString().getBytes(StandardCharsets.UTF_8);
+    int len = Math.min(b.length, DICT_ENTRY-1);
+    buf.put(DICT_OFF + code*DICT_ENTRY, (byte) len);
+    buf.put(DICT_OFF + code*DICT_ENTRY + 1, b, 0, len);
+  }
+
+  private String readDictEntry(int code)
+  {
+    int len = buf.get(DICT_OFF + code*DICT_ENTRY);
+    byte[] b = new byte[len];
+    buf.get(DICT_OFF + code*DICT_ENTRY + 1, b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  // Code of the cell at row/col, 0 if empty or outside the extent
+  private int code(int row, int col)
+  {
+    if(row > maxRow || col > maxCol || row < minRow || col < minCol)
+      return 0;
+    return buf.get(cellOff + (row-originRow)*physCols + (col-originCol)) & 0xff;
+  }
+
+  private void putCode(int row, int col, int code)
+  {
+    buf.put(cellOff + (row-originRow)*physCols + (col-originCol), (byte) code);
+  }
+
+  // Access the extent of the board
+  //
+  // Target complexity: O(1)
+  public int getMinRow()
+  {
+    refresh();
+    return minRow;
+  }
+
+  public int getMaxRow()
+  {
+    refresh();
+    return maxRow;
+  }
+
+  public int getMinCol()
+  {
+    refresh();
+    return minCol;
+  }
+
+  public int getMaxCol()
+  {
+    refresh();
+    return maxCol;
+  }
+
+  // Retrieve/change the fill element. The fill element is recorded in
+  // the file so that readers in other processes display it too.
+  //
+  // Target complexity: O(1)
+  public T getFillElem()
+  {
+    refresh();
+    return fill;
+  }
+
+  public void setFillElem(T f)
+  {
+    checkWritable();
+    if(f == null)
+      throw new RuntimeException("Cannot set elements to null");
+    T old = fill;
+    fill = f;
+    writeDictEntry(0, f);
+    generation++;
+    writeHeader();
+    listeners.fireFillElemChanged(old, f);
+  }
+
+  // Register/unregister a listener for changes made through this
+  // board. Changes made by another process to a read-only board are
+  // not reported.
+  public void addBoardListener(BoardListener<T> l)
+  {
+    listeners.add(l);
+  }
+
+  public void removeBoardListener(BoardListener<T> l)
+  {
+    listeners.remove(l);
+  }
+
+  // Retrieve an element at virtual row/col; the fill element is
+  // returned for empty cells and anything beyond the extent.
+  //
+  // Complexity: O(1)
+  public T get(int row, int col)
+  {
+    refresh();
+    int c = code(row, col);
+    if(c == 0)
+      return fill;
+    return symbols.symbol(c);
+  }
+
+  // Retrieve the longest sequence present on the board. Each history
+  // entry records where the longest sequence after its set lies, so
+  // the list is rebuilt from the cells in DenseBoard's order: the cell
+  // whose set completed it, the cells before it nearest first, then
+  // the cells after it nearest first.
+  //
+  // Target Complexity: O(L)
+  //   L: length of the longest sequence
+  public List< RowColElem<T> > getLongestSequence()
+  {
+    refresh();
+    List<RowColElem<T>> seq = new ArrayList<RowColElem<T>>();
+    if(histTop == 0)
+      return seq;
+    int e = HIST_OFF + (histTop-1)*HIST_ENTRY;
+    int dir = buf.get(e+9);
+    int row = buf.getInt(e+12);
+    int col = buf.getInt(e+16);
+    int back = buf.getInt(e+20);
+    int len = buf.getInt(e+24);
+    seq.add(new RowColElem<T>(row, col, get(row, col)));
+    for(int i = 1; i <= back; i++)
+      seq.add(new RowColElem<T>(row - i*DROW[dir], col - i*DCOL[dir], get(row - i*DROW[dir], col - i*DCOL[dir])));
+    for(int i = 1; i < len-back; i++)
+      seq.add(new RowColElem<T>(row + i*DROW[dir], col + i*DCOL[dir], get(row + i*DROW[dir], col + i*DCOL[dir])));
+    return seq;
+  }
+
+  // Set element at row/col to x, expanding the board if needed. Same
+  // contract as DenseBoard.set().
+  //
+  // Target Complexity:
+  //   If expansion is required, same complexity as expandToInclude()
+  //   If expansion is not required, O(L)
+  //     L: the length of the longest sequence through row/col
+  public void set(int row, int col, T x)
+  {
+    checkWritable();
+    if(x == null)
+      throw new RuntimeException("Cannot set elements to null");
+    if(!get(row, col).equals(fill))
+      throw new RuntimeException("Element " + row + " " + col + " already set to " + get(row, col));
+    if(x.equals(fill))
+      return;
+
+    int n = symbols.size();
+    int c = symbols.code(x);
+    if(symbols.size() != n)
+      writeDictEntry(c, x);
+    expandToInclude(row, col);
+    if(histTop == histCap)
+      relayout(originRow, originCol, physRows, physCols, histCap*2);
+    putCode(row, col, c);
+
+    //Longest sequence so far, replaced only by a strictly longer one
+    int bestDir = 0, bestRow = 0, bestCol = 0, bestBack = 0, bestLen = 0;
+    if(histTop > 0)
+    {
+      int p = HIST_OFF + (histTop-1)*HIST_ENTRY;
+      bestDir = buf.get(p+9);
+      bestRow = buf.getInt(p+12);
+      bestCol = buf.getInt(p+16);
+      bestBack = buf.getInt(p+20);
+      bestLen = buf.getInt(p+24);
+    }
+    for(int d = 0; d < 4; d++)
+    {
+      int back = 0;
+      while(code(row - (back+1)*DROW[d], col - (back+1)*DCOL[d]) == c)
+        back++;
+      int fwd = 0;
+      while(code(row + (fwd+1)*DROW[d], col + (fwd+1)*DCOL[d]) == c)
+        fwd++;
+      if(back+fwd+1 > bestLen)
+      {
+        bestLen = back+fwd+1;
+        bestDir = d;
+        bestRow = row;
+        bestCol = col;
+        bestBack = back;
+      }
+    }
+
+    int e = HIST_OFF + histTop*HIST_ENTRY;
+    buf.putInt(e, row);
+    buf.putInt(e+4, col);
+    buf.put(e+8, (byte) c);
+    buf.put(e+9, (byte) bestDir);
+    buf.putInt(e+12, bestRow);
+    buf.putInt(e+16, bestCol);
+    buf.putInt(e+20, bestBack);
+    buf.putInt(e+24, bestLen);
+    histTop++;
+    histTotal = histTop;
+    writeHeader();
+    listeners.fireSet(row, col, x);
+  }
+
+  // Ensure row/col is within the extent of the board, returning the
+  // number of cells added to the extent. The physical window in the
+  // file grows by at least doubling in the direction of expansion, so
+  // most calls only change the extent recorded in the header.
+  //
+  // Target Complexity: O(N) amortized
+  //   N: new cells added
+  public int expandToInclude(int row, int col)
+  {
+    checkWritable();
+    int initArea = (maxRow-minRow+1) * (maxCol-minCol+1);
+    int nMinRow = Math.min(minRow, row), nMaxRow = Math.max(maxRow, row);
+    int nMinCol = Math.min(minCol, col), nMaxCol = Math.max(maxCol, col);
+
+    int nOriginRow = originRow, nPhysRows = physRows;
+    if(nMinRow < nOriginRow)
+    {
+      int grow = Math.max(nOriginRow - nMinRow, nPhysRows);
+      nOriginRow -= grow;
+      nPhysRows += grow;
+    }
+    if(nMaxRow >= nOriginRow + nPhysRows)
+      nPhysRows += Math.max(nMaxRow - (nOriginRow + nPhysRows) + 1, nPhysRows);
+    int nOriginCol = originCol, nPhysCols = physCols;
+    if(nMinCol < nOriginCol)
+    {
+      int grow = Math.max(nOriginCol - nMinCol, nPhysCols);
+      nOriginCol -= grow;
+      nPhysCols += grow;
+    }
+    if(nMaxCol >= nOriginCol + nPhysCols)
+      nPhysCols += Math.max(nMaxCol - (nOriginCol + nPhysCols) + 1, nPhysCols);
+    if(nPhysRows != physRows || nPhysCols != physCols)
+      relayout(nOriginRow, nOriginCol, nPhysRows, nPhysCols, histCap);
+
+    minRow = nMinRow;
+    maxRow = nMaxRow;
+    minCol = nMinCol;
+    maxCol = nMaxCol;
+    writeHeader();
+    int finalArea = (maxRow-minRow+1) * (maxCol-minCol+1);
+    if(finalArea != initArea)
+      listeners.fireExtentChanged(minRow, maxRow, minCol, maxCol);
+    return finalArea-initArea;
+  }
+
+  // Grow the file to a new physical window and history capacity. Both
+  // the history capacity and the window only grow, so every byte moves
+  // to an equal or higher offset; rows are moved last to first so no
+  // cell is overwritten before it has been moved. Cells not covered by
+  // the old window are then cleared.
+  private void relayout(int nOriginRow, int nOriginCol, int nPhysRows, int nPhysCols, int nHistCap)
+  {
+    int nCellOff = HIST_OFF + nHistCap*HIST_ENTRY;
+    map(checkedSize(nCellOff, nPhysRows, nPhysCols));
+    int dr = originRow - nOriginRow;
+    int dc = originCol - nOriginCol;
+    for(int r = physRows-1; r >= 0; r--)
+      moveUp(cellOff + r*physCols, nCellOff + (r+dr)*nPhysCols + dc, physCols);
+    for(int r = 0; r < nPhysRows; r++)
+    {
+      int rowOff = nCellOff + r*nPhysCols;
+      if(r < dr || r >= dr+physRows)
+        clear(rowOff, nPhysCols);
+      else
+      {
+        clear(rowOff, dc);
+        clear(rowOff + dc + physCols, nPhysCols - dc - physCols);
+      }
+    }
+    originRow = nOriginRow;
+    originCol = nOriginCol;
+    physRows = nPhysRows;
+    physCols = nPhysCols;
+    histCap = nHistCap;
+    cellOff = nCellOff;
+    generation++;
+    writeHeader();
+  }
+
+  private static final int CHUNK = 8192;
+  private static final byte[] ZEROS = new byte[CHUNK];
+
+  // Copy len bytes from src to dst >= src, copying chunks from the end
+  // so overlapping ranges are handled
+  private void moveUp(int src, int dst, int len)
+  {
+    if(src == dst || len == 0)
+      return;
+    byte[] chunk = new byte[Math.min(len, CHUNK)];
+    for(int end = len; end > 0; end -= chunk.length)
+    {
+      int n = Math.min(end, chunk.length);
+      buf.get(src + end - n, chunk, 0, n);
+      buf.put(dst + end - n, chunk, 0, n);
+    }
+  }
+
+  private void clear(int off, int len)
+  {
+    for(int i = 0; i < len; i += CHUNK)
+      buf.put(off + i, ZEROS, 0, Math.min(CHUNK, len-i));
+  }
+
+  // Undo the last set; same contract as DenseBoard.undoSet()
+  //
+  // Target Complexity: O(1)
+  public void undoSet()
+  {
+    checkWritable();
+    if(histTop == 0)
+      throw new RuntimeException("Undo history is empty");
+    histTop--;
+    int e = HIST_OFF + histTop*HIST_ENTRY;
+    int row = buf.getInt(e);
+    int col = buf.getInt(e+4);
+    putCode(row, col, 0);
+    writeHeader();
+    listeners.fireUndone(row, col, symbols.symbol(buf.get(e+8) & 0xff));
+  }
+
+  // Redo an undone set; same contract as DenseBoard.redoSet()
+  //
+  // Target Complexity: O(1)
+  public void redoSet()
+  {
+    checkWritable();
+    if(histTop == histTotal)
+      throw new RuntimeException("Redo history is empty");
+    int e = HIST_OFF + histTop*HIST_ENTRY;
+    int row = buf.getInt(e);
+    int col = buf.getInt(e+4);
+    int c = buf.get(e+8) & 0xff;
+    putCode(row, col, c);
+    histTop++;
+    writeHeader();
+    listeners.fireRedone(row, col, symbols.symbol(c));
+  }
+
+  // Write any changes to the mapping through to the file on disk.
+  // Readers in other processes see changes without this; it is only
+  // needed for durability.
+  public void force()
+  {
+    buf.force();
+  }
+
+  // toString() - create a pretty representation of board in the same
+  // format as DenseBoard.
+  //
+  // Target Complexity: O(R*C)
+  public String toString()
+  {
+    refresh();
+    StringBuilder lines = new StringBuilder(); //+---+---+.....
+    StringBuilder top = new StringBuilder(); //Top row
+    top.append("    ");
+    lines.append("  ");
+    for(int k = minCol; k <= maxCol; k++)
+    {
+      top.append("|" + String.format("%3s", k));
+      lines.append("+---");
+    }
+    top.append("|");
+    lines.append("+");
+    StringBuilder toStr = new StringBuilder();
+    toStr.append(top);
+    toStr.append("\n");
+    toStr.append("  ");
+    toStr.append(lines);
+    toStr.append("\n");
+    for(int i = minRow; i <= maxRow; i++){
+      toStr.append(String.format("%3s", i) + " |");
+      for(int j = minCol; j <= maxCol; j++){
+        toStr.append(String.format("%3s", get(i, j)) + "|");
+      }
+      toStr.append("\n");
+      toStr.append("  ");
+      toStr.append(lines);
+      toStr.append("\n");
+    }
+    return toStr.toString();
+  }
+
+}
@@ -0,0 +1,38 @@
+import java.nio.file.*;
+
+// Checks for MappedBoard readers, run with: java MappedBoardTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class MappedBoardTest extends Checks
+{
+  public static void main(String args[]) throws Exception
+  {
+    Path file = Files.createTempFile("MappedBoardTest", ".board");
+    try
+    {
+      //Elements whose first 15 bytes match share a dictionary string
+      MappedBoard<String> board = new MappedBoard<String>(file, 0, 0, 0, 0, ".");
+      board.set(0, 0, "ABCDEFGHIJKLMNOP-1");
+      board.set(0, 1, "ABCDEFGHIJKLMNOP-2");
+      board.set(0, 2, "ABCDEFGHIJKLMNOP-1");
+      MappedBoard<String> reader = MappedBoard.openReadOnly(file);
+      check("reader opens a file with repeated dictionary strings",
+            reader.get(0, 1).equals("ABCDEFGHIJKLMNO") && reader.get(0, 2).equals("ABCDEFGHIJKLMNO"));
+      check("reader sees the extent", reader.getMinCol() == 0 && reader.getMaxCol() == 2);
+
+      //The reader follows the writer as it grows the file
+      for(int i = 1; i <= 200; i++)
+        board.set(i, -i, i % 2 == 0 ? "X" : "O");
+      check("reader follows growth", reader.getMaxRow() == 200 && reader.get(200, -200).equals("X"));
+      check("reader sees the longest sequence",
+            reader.getLongestSequence().size() == board.getLongestSequence().size());
+    }
+    finally
+    {
+      Files.deleteIfExists(file);
+    }
+
+    finish();
+  }
+
+}
@@ -0,0 +1,246 @@
+import java.util.*;
+
+// A 61-bit hash of the elements on a board which is the same for any
+// two positions that differ only by translation, rotation or
+// reflection, so a position is found however the game that reached it
+// was oriented on the board.
+//
+// Each element x at row/col contributes k(x)*A^row*B^col to a sum
+// modulo the prime P = 2^61-1, where k(x) is a 64 bit hash of every
+// char of the string form of x and A, B are fixed constants. Moving
+// the whole position by dr/dc multiplies the sum by A^dr*B^dc, so
+// multiplying by A^-minRow*B^-minCol gives a value independent of
+// translation. One such sum is kept for each of the 8 rotations and
+// reflections of the board and the hash is the smallest of the 8
+// normalised values.
+// Distinct positions are polynomials in A and B with different
+// coefficients, so they collide with probability around E/P where E
+// is the extent of the positions.
+//
+// Elements are added one at a time as a game is replayed; each add()
+// and get() costs a few hundred multiplications whatever the number of
+// elements already added.
+//
+// getExact() gives the untransformed sum instead, which tells apart
+// positions that are moved or turned, for uses such as caching a
+// chosen move where the exact cells matter. It is the sum of term()
+// over the elements, so it can be kept up to date as elements are set
+// and undone.
+public class PositionHash<T>
+{
+  static final long P = (1L << 61) - 1;
+  static final long A = 0x0a3b195354a39b70L % P, B = 0x1e3779b97f4a7c15L % P;
+  static final long A_INV = pow(A, P-2), B_INV = pow(B, P-2);
+
+  //sums[t] is the sum for the board transformed by t: bit 2 swaps rows
+  //and columns, then bit 0 negates rows and bit 1 negates columns
+  long[] sums = new long[8];
+  int minRow = Integer.MAX_VALUE, maxRow = Integer.MIN_VALUE;
+  int minCol = Integer.MAX_VALUE, maxCol = Integer.MIN_VALUE;
+  int size; //Elements added
+  HashMap<T,Long> keys = new HashMap<T,Long>(); //Element -> k(x)
+
+  // Hash of the empty position
+  public PositionHash()
+  {
+  }
+
+  // Hash of every element on board other than the fill element
+  //
+  // Complexity: O(R*C)
+  public static <T> long of(ExpandableBoard<T> board)
+  {
+    PositionHash<T> h = new PositionHash<T>();
+    T fill = board.getFillElem();
+    for(int r = board.getMinRow(); r <= board.getMaxRow(); r++)
+    {
+      for(int c = board.getMinCol(); c <= board.getMaxCol(); c++)
+      {
+        T x = board.get(r, c);
+        if(!x.equals(fill))
+          h.add(r, c, x);
+      }
+    }
+    return h.get();
+  }
+
+  // Number of elements added
+  public int size()
+  {
+    return size;
+  }
+
+  // Add element x at row/col. Adding two elements at the same cell is
+  // not detected.
+  //
+  // Complexity: O(1)
+  public void add(int row, int col, T x)
+  {
+    Long k = keys.get(x);
+    if(k == null)
+    {
+      k = key(x.toString());
+      keys.put(x, k);
+    }
+    long ar = powA(row), ac = powA(col), br = powB(row), bc = powB(col);
+    long arInv = powA(-(long) row), acInv = powA(-(long) col), brInv = powB(-(long) row), bcInv = powB(-(long) col);
+    for(int t = 0; t < 8; t++)
+    {
+      long a, b; //A^row' and B^col' of the transformed cell
+      if((t & 4) == 0)
+      {
+        a = (t & 1) == 0 ? ar : arInv;
+        b = (t & 2) == 0 ? bc : bcInv;
+      }
+      else
+      {
+        a = (t & 1) == 0 ? ac : acInv;
+        b = (t & 2) == 0 ? br : brInv;
+      }
+      sums[t] = add(sums[t], mul(k, mul(a, b)));
+    }
+    minRow = Math.min(minRow, row);
+    maxRow = Math.max(maxRow, row);
+    minCol = Math.min(minCol, col);
+    maxCol = Math.max(maxCol, col);
+    size++;
+  }
+
+  // The hash of the elements added so far; 0 for the empty position
+  //
+  // Complexity: O(1)
+  public long get()
+  {
+    if(size == 0)
+      return 0;
+    long best = Long.MAX_VALUE;
+    for(int t = 0; t < 8; t++)
+    {
+      //Smallest transformed row and column, to move to 0
+      int min0, min1;
+      if((t & 4) == 0)
+      {
+        min0 = (t & 1) == 0 ? minRow : -maxRow;
+        min1 = (t & 2) == 0 ? minCol : -maxCol;
+      }
+      else
+      {
+        min0 = (t & 1) == 0 ? minCol : -maxCol;
+        min1 = (t & 2) == 0 ? minRow : -maxRow;
+      }
+      long h = mul(sums[t], mul(powA(-(long) min0), powB(-(long) min1)));
+      best = Math.min(best, h);
+    }
+    return best;
+  }
+
+  // Hash of the elements added so far without normalising for
+  // translation, rotation or reflection; 0 for the empty position
+  //
+  // Complexity: O(1)
+  public long getExact()
+  {
+    return sums[0];
+  }
+
+  // What x at row/col adds to getExact(). Add or subtract terms with
+  // plus() and minus() to follow sets and undos.
+  //
+  // Complexity: O(log(|row|+|col|))
+  public static long term(int row, int col, Object x)
+  {
+    return mul(key(x.toString()), mul(powA(row), powB(col)));
+  }
+
+  // The exact hash of every element on board other than the fill
+  // element
+  //
+  // Complexity: O(R*C)
+  public static <T> long exactOf(ExpandableBoard<T> board)
+  {
+    T fill = board.getFillElem();
+    long h = 0;
+    for(int r = board.getMinRow(); r <= board.getMaxRow(); r++)
+    {
+      for(int c = board.getMinCol(); c <= board.getMaxCol(); c++)
+      {
+        T x = board.get(r, c);
+        if(!x.equals(fill))
+          h = plus(h, term(r, c, x));
+      }
+    }
+    return h;
+  }
+
+  public static long plus(long h, long term)
+  {
+    return add(h, term);
+  }
+
+  public static long minus(long h, long term)
+  {
+    return add(h, P - term);
+  }
+
+  // k(x): the string form hashed into 1..P-1
+  static long key(String s)
+  {
+    long z = stringHash(s) & P;
+    return z == 0 || z == P ? 1 : z;
+  }
+
+  // 64 bit hash of every char of s. String.hashCode() is too narrow:
+  // symbols such as "Aa" and "BB" share one.
+  //
+  // Complexity: O(|s|)
+  public static long stringHash(String s)
+  {
+    long z = 0xcbf29ce484222325L ^ s.length();
+    for(int i = 0; i < s.length(); i++)
+      z = (z ^ s.charAt(i)) * 0x100000001b3L; //FNV-1a
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  static long add(long a, long b)
+  {
+    long s = a + b;
+    return s >= P ? s - P : s;
+  }
+
+  // a*b mod P for a, b < P: the 122 bit product folded using 2^61 = 1
+  static long mul(long a, long b)
+  {
+    long hi = Math.multiplyHigh(a, b), lo = a * b;
+    long r = (lo & P) + (lo >>> 61) + (hi << 3);
+    r = (r & P) + (r >>> 61);
+    return r >= P ? r - P : r;
+  }
+
+  // A^e and B^e mod P for any e
+  static long powA(long e)
+  {
+    return e >= 0 ? pow(A, e) : pow(A_INV, -e);
+  }
+
+  static long powB(long e)
+  {
+    return e >= 0 ? pow(B, e) : pow(B_INV, -e);
+  }
+
+  // x^e mod P for e >= 0
+  static long pow(long x, long e)
+  {
+    long r = 1;
+    while(e > 0)
+    {
+      if((e & 1) != 0)
+        r = mul(r, x);
+      x = mul(x, x);
+      e >>= 1;
+    }
+    return r;
+  }
+
+}
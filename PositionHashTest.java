@@ -0,0 +1,38 @@
+// Checks for PositionHash, run with: java PositionHashTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class PositionHashTest extends Checks
+{
+  // a at 0,0 and b at 0,1 with an X below a, so swapping a and b
+  // gives a position which is no rotation or reflection of this one
+  static DenseBoard<String> pair(String a, String b)
+  {
+    DenseBoard<String> board = new DenseBoard<String>(".");
+    board.set(0, 0, a);
+    board.set(0, 1, b);
+    board.set(1, 0, "X");
+    return board;
+  }
+
+  public static void main(String args[])
+  {
+    //"Aa" and "BB" have the same String.hashCode()
+    check("Aa and BB share a String.hashCode()", "Aa".hashCode() == "BB".hashCode());
+    check("Aa and BB get different keys", PositionHash.key("Aa") != PositionHash.key("BB"));
+    check("Aa and BB get different string hashes", PositionHash.stringHash("Aa") != PositionHash.stringHash("BB"));
+
+    DenseBoard<String> ab = pair("Aa", "BB"), ba = pair("BB", "Aa");
+    check("swapping Aa and BB changes the hash", PositionHash.of(ab) != PositionHash.of(ba));
+    check("swapping Aa and BB changes the exact hash", PositionHash.exactOf(ab) != PositionHash.exactOf(ba));
+
+    //Same position moved and reflected still matches
+    DenseBoard<String> moved = new DenseBoard<String>(".");
+    moved.set(5, 7, "BB");
+    moved.set(5, 8, "Aa");
+    moved.set(6, 8, "X");
+    check("moved and reflected position keeps its hash", PositionHash.of(moved) == PositionHash.of(ab));
+
+    finish();
+  }
+
+}
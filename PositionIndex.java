@@ -0,0 +1,620 @@
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+// An on-disk index from positions to the archived games that reached
+// them, answering "which games reached this position and how did they
+// end?" without replaying the archive.
+//
+// Usage: java PositionIndex build <index> <archive>...
+//        java PositionIndex query <index> [row col symbol]...
+//
+// Archives are text files with one finished game per line: a game id,
+// the result (any token, usually the winning symbol or "draw") and the
+// moves in order as row/col/symbol triples, e.g.
+//   g1 X 0 0 X 0 1 O 1 1 X 5 5 O 2 2 X ...
+// Blank lines and lines starting with # are skipped. Each game is
+// replayed once on a DenseBoard and the PositionHash of the position
+// after every move is recorded, so positions are matched whatever
+// their orientation on the board.
+//
+// The index is one file which is memory-mapped for queries. Distinct
+// position hashes are kept in sorted order with the offset of their
+// posting list, so a lookup is a binary search of the mapped entries.
+// Each posting list starts with the number of games and the number of
+// them that ended with each result, so statistics for a position are
+// read without touching the games, followed by (game, ply) pairs in
+// game order as variable-length deltas. Building into an existing
+// index adds only games whose ids it does not already hold: the old
+// posting lists are merged with those of the new games in one pass.
+//
+// File layout (big-endian):
+//   0     header, see the H_ offsets below
+//   64    posting lists: varint games, varint count per result, then
+//         per game varint game delta and varint ply
+//   ...   entries, sorted by hash: hash long, posting list offset long
+//   ...   games: offset of the id in the strings int, result code int
+//   ...   strings: results then game ids, each an int byte length
+//         followed by UTF-8 bytes
+// Index files are limited to 2GB, and positions of a build to what
+// fits in memory (32 bytes each while sorting).
+public class PositionIndex
+{
+  static final int MAGIC = 0x474d4b49; //"GMKI"
+  static final int VERSION = 2; //1 hashed symbols by String.hashCode()
+  static final String FILL = "."; //Fill element of the replay board
+  static final int MAX_PLY = (1 << 20) - 1; //Longest game which can be indexed
+  static final int QUERY_GAMES = 20; //Games listed by the query command
+
+  //Header offsets
+  static final int H_MAGIC = 0, H_VERSION = 4, H_ENTRIES = 8, H_GAMES = 12, H_RESULTS = 16;
+  static final int H_ENTRIES_OFF = 24, H_GAMES_OFF = 32, H_STRINGS_OFF = 40, H_POSITIONS = 48;
+  static final int HEADER = 64;
+  static final int ENTRY = 16;
+
+  Path path;
+  ByteBuffer buf; //The mapped file
+  int entries, games;
+  long entriesOff, gamesOff, stringsOff;
+  long positions; //Positions indexed over all games
+  String[] results; //Result code -> result
+
+  private PositionIndex(Path path, ByteBuffer buf) throws IOException
+  {
+    this.path = path;
+    this.buf = buf;
+    if(buf.capacity() < HEADER || buf.getInt(H_MAGIC) != MAGIC)
+      throw new IOException("Not a position index: " + path);
+    int version = buf.getInt(H_VERSION);
+    if(version != VERSION)
+      throw new IOException("Unsupported position index version " + version + ": " + path);
+    entries = buf.getInt(H_ENTRIES);
+    games = buf.getInt(H_GAMES);
+    entriesOff = buf.getLong(H_ENTRIES_OFF);
+    gamesOff = buf.getLong(H_GAMES_OFF);
+    stringsOff = buf.getLong(H_STRINGS_OFF);
+    positions = buf.getLong(H_POSITIONS);
+    results = new String[buf.getInt(H_RESULTS)];
+    long off = stringsOff;
+    for(int i = 0; i < results.length; i++)
+    {
+      results[i] = getString(off);
+      off += 4 + buf.getInt((int) off);
+    }
+  }
+
+  // Open an index written by build()
+  public static PositionIndex open(Path file) throws IOException
+  {
+    try(FileChannel ch = FileChannel.open(file, StandardOpenOption.READ))
+    {
+      if(ch.size() > Integer.MAX_VALUE)
+        throw new IOException("Position index too large to map: " + file);
+      return new PositionIndex(file, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+    }
+  }
+
+  // Number of games indexed
+  public int getGames()
+  {
+    return games;
+  }
+
+  // Number of distinct positions indexed
+  public int getPositions()
+  {
+    return entries;
+  }
+
+  // Id and result of game number g, 0 <= g < getGames()
+  public String getGameId(int g)
+  {
+    return getString(stringsOff + buf.getInt((int) (gamesOff + 8L*g)));
+  }
+
+  public String getGameResult(int g)
+  {
+    return results[buf.getInt((int) (gamesOff + 8L*g + 4))];
+  }
+
+  private String getString(long off)
+  {
+    ByteBuffer b = buf.duplicate();
+    b.position((int) off);
+    byte[] s = new byte[b.getInt()];
+    b.get(s);
+    return new String(s, StandardCharsets.UTF_8);
+  }
+
+  // Entry number holding hash, -1 if the position was never reached
+  //
+  // Complexity: O(log(N))
+  //   N: number of distinct positions
+  int find(long hash)
+  {
+    int lo = 0, hi = entries-1;
+    while(lo <= hi)
+    {
+      int mid = (lo + hi) >>> 1;
+      long h = buf.getLong((int) (entriesOff + (long) ENTRY*mid));
+      if(h < hash)
+        lo = mid+1;
+      else if(h > hash)
+        hi = mid-1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+  // How the games which reached a position ended
+  public static class Stats
+  {
+    private String[] results;
+    private int[] counts;
+    private int games;
+
+    Stats(String[] results, int[] counts, int games)
+    {
+      this.results = results;
+      this.counts = counts;
+      this.games = games;
+    }
+
+    // Number of games which reached the position
+    public int getGames()
+    {
+      return games;
+    }
+
+    // Number of those games which ended with result
+    public int getCount(String result)
+    {
+      for(int i = 0; i < results.length; i++)
+      {
+        if(results[i].equals(result))
+          return counts[i];
+      }
+      return 0;
+    }
+
+    public String toString()
+    {
+      StringBuilder s = new StringBuilder(games + (games == 1 ? " game" : " games"));
+      String sep = ": ";
+      for(int i = 0; i < results.length; i++)
+      {
+        if(counts[i] > 0)
+        {
+          s.append(sep).append(results[i]).append(" ").append(counts[i]);
+          sep = ", ";
+        }
+      }
+      return s.toString();
+    }
+  }
+
+  // A game which reached a position, with the ply (number of moves
+  // played) at which it did
+  public static class Game
+  {
+    private String id, result;
+    private int ply;
+
+    Game(String id, int ply, String result)
+    {
+      this.id = id;
+      this.ply = ply;
+      this.result = result;
+    }
+
+    public String getId()
+    {
+      return id;
+    }
+
+    public int getPly()
+    {
+      return ply;
+    }
+
+    public String getResult()
+    {
+      return result;
+    }
+
+    public String toString()
+    {
+      return id + " " + ply + " " + result;
+    }
+  }
+
+  // Statistics for the position with the given PositionHash
+  //
+  // Complexity: O(log(N) + R)
+  //   R: number of distinct results
+  public Stats lookup(long hash)
+  {
+    int e = find(hash);
+    int[] counts = new int[results.length];
+    if(e < 0)
+      return new Stats(results, counts, 0);
+    ByteBuffer b = postings(e);
+    int n = (int) getVarint(b);
+    for(int i = 0; i < counts.length; i++)
+      counts[i] = (int) getVarint(b);
+    return new Stats(results, counts, n);
+  }
+
+  // Statistics for the position on board
+  //
+  // Complexity: O(R*C + log(N))
+  public <T> Stats lookup(ExpandableBoard<T> board)
+  {
+    return lookup(PositionHash.of(board));
+  }
+
+  // Up to limit of the games which reached the position with the given
+  // hash, in the order they were indexed
+  //
+  // Complexity: O(log(N) + R + limit)
+  public List<Game> games(long hash, int limit)
+  {
+    List<Game> list = new ArrayList<Game>();
+    int e = find(hash);
+    if(e < 0)
+      return list;
+    ByteBuffer b = postings(e);
+    int n = (int) getVarint(b);
+    for(int i = 0; i < results.length; i++)
+      getVarint(b);
+    int g = 0;
+    for(int i = 0; i < Math.min(n, limit); i++)
+    {
+      g += (int) getVarint(b);
+      int ply = (int) getVarint(b);
+      list.add(new Game(getGameId(g), ply, getGameResult(g)));
+    }
+    return list;
+  }
+
+  // Posting list of entry e, positioned at its start
+  private ByteBuffer postings(int e)
+  {
+    ByteBuffer b = buf.duplicate();
+    b.position((int) buf.getLong((int) (entriesOff + (long) ENTRY*e + 8)));
+    return b;
+  }
+
+  static long getVarint(ByteBuffer b)
+  {
+    long v = 0;
+    for(int shift = 0; ; shift += 7)
+    {
+      byte x = b.get();
+      v |= (long) (x & 0x7f) << shift;
+      if(x >= 0)
+        return v;
+    }
+  }
+
+  static void putVarint(BoardCheckpoint.Writer out, long v) throws IOException
+  {
+    while((v & ~0x7fL) != 0)
+    {
+      out.putByte((int) (v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    out.putByte((int) v);
+  }
+
+  // Positions of the games being added by build(): hash and packed
+  // game number and ply, in the order they were reached
+  static class Postings
+  {
+    long[] hashes = new long[1024];
+    long[] games = new long[1024]; //game << 20 | ply
+    int size;
+
+    void add(long hash, int game, int ply)
+    {
+      if(size == hashes.length)
+      {
+        hashes = Arrays.copyOf(hashes, size*2);
+        games = Arrays.copyOf(games, size*2);
+      }
+      hashes[size] = hash;
+      games[size++] = (long) game << 20 | ply;
+    }
+
+    // Sort by hash keeping the order of equal hashes, so each game's
+    // postings stay in game order: a least significant digit radix
+    // sort, 8 bits at a time, skipping digits that are the same in
+    // every hash.
+    void sort()
+    {
+      long[] h2 = new long[size], g2 = new long[size];
+      for(int shift = 0; shift < 64; shift += 8)
+      {
+        int[] start = new int[257];
+        for(int i = 0; i < size; i++)
+          start[(int) (hashes[i] >>> shift & 0xff) + 1]++;
+        if(start[(int) (hashes[0] >>> shift & 0xff) + 1] == size)
+          continue;
+        for(int d = 0; d < 256; d++)
+          start[d+1] += start[d];
+        for(int i = 0; i < size; i++)
+        {
+          int at = start[(int) (hashes[i] >>> shift & 0xff)]++;
+          h2[at] = hashes[i];
+          g2[at] = games[i];
+        }
+        long[] t = hashes;
+        hashes = h2;
+        h2 = t;
+        t = games;
+        games = g2;
+        g2 = t;
+      }
+    }
+  }
+
+  // Replay the games in archives and add them to the index at file,
+  // creating it if it does not exist. Games whose id is already in the
+  // index or earlier in the archives are skipped, so an archive which
+  // has grown can simply be indexed again. Games that cannot be
+  // replayed are skipped and reported on System.err with their file
+  // and line number. The new index replaces the old one atomically.
+  //
+  // Complexity: O(G*M + N + P)
+  //   G: number of new games, M: moves per game
+  //   N: number of positions in the old index, P: size of the old posting lists
+  public static void build(Path file, List<Path> archives) throws IOException
+  {
+    long start = System.nanoTime();
+    PositionIndex old = Files.exists(file) ? open(file) : null;
+    int oldGames = old == null ? 0 : old.games;
+
+    ArrayList<String> ids = new ArrayList<String>();
+    HashSet<String> seen = new HashSet<String>();
+    LinkedHashMap<String,Integer> resultCodes = new LinkedHashMap<String,Integer>();
+    if(old != null)
+    {
+      for(String r : old.results)
+        resultCodes.put(r, resultCodes.size());
+      for(int g = 0; g < oldGames; g++)
+      {
+        ids.add(old.getGameId(g));
+        seen.add(ids.get(g));
+      }
+    }
+    int[] gameResult = new int[1024]; //Result code of each new game
+    Postings postings = new Postings();
+    int skipped = 0, failed = 0;
+
+    for(Path archive : archives)
+    {
+      try(BufferedReader in = Files.newBufferedReader(archive))
+      {
+        int lineNo = 0;
+        for(String line = in.readLine(); line != null; line = in.readLine())
+        {
+          lineNo++;
+          line = line.trim();
+          if(line.length() == 0 || line.startsWith("#"))
+            continue;
+          String[] tok = line.split("\\s+");
+          if(seen.contains(tok[0]))
+          {
+            skipped++;
+            continue;
+          }
+          int game = ids.size();
+          int mark = postings.size;
+          try
+          {
+            replay(tok, game, postings);
+          }
+          catch(RuntimeException e)
+          {
+            System.err.println(archive + ":" + lineNo + ": " + e.getMessage());
+            postings.size = mark;
+            failed++;
+            continue;
+          }
+          ids.add(tok[0]);
+          seen.add(tok[0]);
+          Integer code = resultCodes.get(tok[1]);
+          if(code == null)
+          {
+            code = resultCodes.size();
+            resultCodes.put(tok[1], code);
+          }
+          if(game-oldGames == gameResult.length)
+            gameResult = Arrays.copyOf(gameResult, gameResult.length*2);
+          gameResult[game-oldGames] = code;
+        }
+      }
+    }
+    if(postings.size > 0)
+      postings.sort();
+
+    String[] results = resultCodes.keySet().toArray(new String[0]);
+    Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+    int nEntries = 0;
+    long nPositions = (old == null ? 0 : old.positions) + postings.size;
+    try(FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                          StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      BoardCheckpoint.Writer out = new BoardCheckpoint.Writer(ch);
+      for(int i = 0; i < HEADER; i++)
+        out.putByte(0);
+
+      //Merge the old and new posting lists in hash order, recording
+      //each entry as it is written
+      long[] entryHash = new long[1024], entryOff = new long[1024];
+      int[] counts = new int[results.length];
+      int[] listGames = new int[64], listPlies = new int[64];
+      int i = 0, j = 0;
+      int oldEntries = old == null ? 0 : old.entries;
+      while(i < oldEntries || j < postings.size)
+      {
+        long oldHash = i < oldEntries ? old.buf.getLong((int) (old.entriesOff + (long) ENTRY*i)) : Long.MAX_VALUE;
+        long hash = j < postings.size ? Math.min(oldHash, postings.hashes[j]) : oldHash;
+        Arrays.fill(counts, 0);
+        int n = 0;
+        if(oldHash == hash)
+        {
+          ByteBuffer b = old.postings(i++);
+          n = (int) getVarint(b);
+          for(int r = 0; r < old.results.length; r++)
+            counts[r] = (int) getVarint(b);
+          if(n > listGames.length)
+          {
+            listGames = Arrays.copyOf(listGames, Math.max(n, listGames.length*2));
+            listPlies = Arrays.copyOf(listPlies, listGames.length);
+          }
+          int g = 0;
+          for(int k = 0; k < n; k++)
+          {
+            g += (int) getVarint(b);
+            listGames[k] = g;
+            listPlies[k] = (int) getVarint(b);
+          }
+        }
+        for(; j < postings.size && postings.hashes[j] == hash; j++)
+        {
+          if(n == listGames.length)
+          {
+            listGames = Arrays.copyOf(listGames, n*2);
+            listPlies = Arrays.copyOf(listPlies, n*2);
+          }
+          listGames[n] = (int) (postings.games[j] >>> 20);
+          listPlies[n] = (int) (postings.games[j] & MAX_PLY);
+          counts[gameResult[listGames[n]-oldGames]]++;
+          n++;
+        }
+
+        if(nEntries == entryHash.length)
+        {
+          entryHash = Arrays.copyOf(entryHash, nEntries*2);
+          entryOff = Arrays.copyOf(entryOff, nEntries*2);
+        }
+        entryHash[nEntries] = hash;
+        entryOff[nEntries++] = out.position();
+        putVarint(out, n);
+        for(int r = 0; r < results.length; r++)
+          putVarint(out, counts[r]);
+        int prev = 0;
+        for(int k = 0; k < n; k++)
+        {
+          putVarint(out, listGames[k] - prev);
+          putVarint(out, listPlies[k]);
+          prev = listGames[k];
+        }
+      }
+
+      long entriesOff = out.position();
+      for(int e = 0; e < nEntries; e++)
+      {
+        out.putLong(entryHash[e]);
+        out.putLong(entryOff[e]);
+      }
+
+      long gamesOff = out.position();
+      int idOff = 0;
+      for(String r : results)
+        idOff += 4 + r.getBytes(StandardCharsets.UTF_8).length;
+      for(int g = 0; g < ids.size(); g++)
+      {
+        out.putInt(idOff);
+        out.putInt(g < oldGames ? resultCodes.get(old.getGameResult(g)) : gameResult[g-oldGames]);
+        idOff += 4 + ids.get(g).getBytes(StandardCharsets.UTF_8).length;
+      }
+
+      long stringsOff = out.position();
+      for(String r : results)
+        out.putString(r);
+      for(String id : ids)
+        out.putString(id);
+      out.flush();
+      if(out.position() > Integer.MAX_VALUE)
+        throw new IOException("Position index too large to map: " + file);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.putInt(H_MAGIC, MAGIC);
+      header.putInt(H_VERSION, VERSION);
+      header.putInt(H_ENTRIES, nEntries);
+      header.putInt(H_GAMES, ids.size());
+      header.putInt(H_RESULTS, results.length);
+      header.putLong(H_ENTRIES_OFF, entriesOff);
+      header.putLong(H_GAMES_OFF, gamesOff);
+      header.putLong(H_STRINGS_OFF, stringsOff);
+      header.putLong(H_POSITIONS, nPositions);
+      while(header.hasRemaining())
+        ch.write(header, header.position());
+      ch.force(false);
+    }
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    System.err.printf("Indexed %d new games (%d positions) in %.2fs; skipped %d already indexed, %d failed; index holds %d games, %d distinct positions\n",
+                      ids.size()-oldGames, postings.size, (System.nanoTime()-start)/1e9, skipped, failed, ids.size(), nEntries);
+  }
+
+  // Replay the moves of one archived game, adding the position after
+  // each move to postings. The board enforces the usual rules: a cell
+  // may only be set once.
+  static void replay(String[] tok, int game, Postings postings)
+  {
+    if(tok.length < 2 || tok.length % 3 != 2)
+      throw new RuntimeException("Expected game id and result followed by row col symbol triples");
+    if((tok.length-2)/3 > MAX_PLY)
+      throw new RuntimeException("Game longer than " + MAX_PLY + " moves");
+    DenseBoard<String> board = new DenseBoard<String>(FILL);
+    PositionHash<String> hash = new PositionHash<String>();
+    for(int i = 2, ply = 1; i < tok.length; i += 3, ply++)
+    {
+      if(tok[i+2].equals(FILL))
+        throw new RuntimeException("Cannot place the fill element " + FILL);
+      int row = Integer.parseInt(tok[i]), col = Integer.parseInt(tok[i+1]);
+      board.set(row, col, tok[i+2]);
+      hash.add(row, col, tok[i+2]);
+      postings.add(hash.get(), game, ply);
+    }
+  }
+
+  public static void main(String args[]) throws Exception
+  {
+    if(args.length >= 3 && args[0].equals("build"))
+    {
+      List<Path> archives = new ArrayList<Path>();
+      for(int i = 2; i < args.length; i++)
+        archives.add(Paths.get(args[i]));
+      build(Paths.get(args[1]), archives);
+    }
+    else if(args.length >= 2 && args[0].equals("query") && args.length % 3 == 2)
+    {
+      PositionIndex index = open(Paths.get(args[1]));
+      PositionHash<String> hash = new PositionHash<String>();
+      for(int i = 2; i < args.length; i += 3)
+        hash.add(Integer.parseInt(args[i]), Integer.parseInt(args[i+1]), args[i+2]);
+      long t0 = System.nanoTime();
+      Stats stats = index.lookup(hash.get());
+      long t1 = System.nanoTime();
+      System.out.println(stats);
+      for(Game g : index.games(hash.get(), QUERY_GAMES))
+        System.out.println("  " + g);
+      System.err.printf("Looked up in %.1fus\n", (t1-t0)/1e3);
+    }
+    else
+    {
+      System.err.println("usage: java PositionIndex build <index> <archive>...");
+      System.err.println("       java PositionIndex query <index> [row col symbol]...");
+      System.exit(1);
+    }
+  }
+
+}
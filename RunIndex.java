@@ -0,0 +1,340 @@
+import java.util.*;
+
+// Index of every maximal run of equal elements on a board in all four
+// directions (horizontal, vertical and both diagonals). The index
+// listens to the board and updates itself as elements are set, undone
+// and redone, so it can report the longest run of each player, every
+// run of at least n, or the k longest runs without scanning the board.
+//
+// A run is identified only by its two end cells: for each direction a
+// map from end cell to run lets set() find the runs ending next to the
+// new element and merge them, and undo split them again, in O(1).
+// Runs of each player are kept in linked buckets by length. A single
+// element is a run of length 1 in each of the four directions.
+public class RunIndex<T> implements BoardListener<T>
+{
+  //Row/col steps of the four directions: horizontal, vertical,
+  //down-right diagonal, down-left diagonal
+  static final int[] DROW = {0, 1, 1, 1};
+  static final int[] DCOL = {1, 0, 1, -1};
+
+  ExpandableBoard<T> board; //Board being indexed
+  SymbolTable<T> symbols = new SymbolTable<T>(Integer.MAX_VALUE-1); //Player element <-> index
+
+  //Runs, stored in parallel arrays indexed by run slot. Free slots are
+  //chained through runNext.
+  int[] runDir = new int[64], runRow = new int[64], runCol = new int[64], runLen = new int[64], runSym = new int[64];
+  int[] runPrev = new int[64], runNext = new int[64];
+  int freeRun = -1, runCount;
+
+  LongIntMap[] ends = {new LongIntMap(), new LongIntMap(), new LongIntMap(), new LongIntMap()}; //Per direction: end cell -> run slot
+
+  //Per player buckets of runs by length: heads[sym][len] is the first
+  //run slot of that length or -1; maxLen[sym] is the longest length
+  int[][] heads = new int[1][];
+  int[] maxLen = new int[1];
+
+  //For each element on the board, how far its run extended backward
+  //and forward in each direction when it was added (8 ints per
+  //element), so undo can split the run without scanning
+  LongIntMap cellRecords = new LongIntMap();
+  int[] records = new int[8*64];
+  int freeRecord = -1, recordCount;
+
+  // Create an index of the given board. Elements already on the board
+  // are indexed immediately and the index registers itself to follow
+  // all later changes.
+  //
+  // Runtime: O(R*C)
+  public RunIndex(ExpandableBoard<T> board)
+  {
+    this.board = board;
+    T fill = board.getFillElem();
+    for(int r = board.getMinRow(); r <= board.getMaxRow(); r++)
+    {
+      for(int c = board.getMinCol(); c <= board.getMaxCol(); c++)
+      {
+        T x = board.get(r, c);
+        if(!x.equals(fill))
+          add(r, c, x);
+      }
+    }
+    board.addBoardListener(this);
+  }
+
+  // Stop following the board
+  public void detach()
+  {
+    board.removeBoardListener(this);
+  }
+
+  // BoardListener callbacks
+  public void elementSet(int row, int col, T x)
+  {
+    add(row, col, x);
+  }
+
+  public void elementRedone(int row, int col, T x)
+  {
+    add(row, col, x);
+  }
+
+  public void elementUndone(int row, int col, T x)
+  {
+    remove(row, col, x);
+  }
+
+  public void extentChanged(int minRow, int maxRow, int minCol, int maxCol)
+  {
+  }
+
+  public void fillElemChanged(T oldFill, T newFill)
+  {
+  }
+
+  // Length of the longest run of the given player, 0 if the player has
+  // no elements on the board.
+  //
+  // Complexity: O(1)
+  public int getLongestRunLength(T player)
+  {
+    int s = symbols.lookup(player);
+    if(s == 0)
+      return 0;
+    return maxLen[s];
+  }
+
+  // The longest run of the given player as a list of triples in order
+  // along the run; empty if the player has no elements on the board.
+  // If there are several, any one of them is returned.
+  //
+  // Complexity: O(L)
+  //   L: length of the run
+  public List< RowColElem<T> > getLongestRun(T player)
+  {
+    int s = symbols.lookup(player);
+    if(s == 0 || maxLen[s] == 0)
+      return new ArrayList<RowColElem<T>>();
+    return toList(heads[s][maxLen[s]]);
+  }
+
+  // All runs of the given player at least n long, longest first
+  //
+  // Complexity: O(A + M)
+  //   A: total length of the runs returned
+  //   M: length of the player's longest run
+  public List< List< RowColElem<T> > > getRuns(T player, int n)
+  {
+    return getTopRuns(player, n, Integer.MAX_VALUE);
+  }
+
+  // The k longest runs of the given player, longest first
+  //
+  // Complexity: O(A + M)
+  public List< List< RowColElem<T> > > getTopRuns(T player, int k)
+  {
+    return getTopRuns(player, 1, k);
+  }
+
+  private List< List< RowColElem<T> > > getTopRuns(T player, int n, int k)
+  {
+    List<List<RowColElem<T>>> runs = new ArrayList<List<RowColElem<T>>>();
+    int s = symbols.lookup(player);
+    if(s == 0)
+      return runs;
+    for(int len = maxLen[s]; len >= Math.max(n, 1) && runs.size() < k; len--)
+    {
+      for(int r = heads[s][len]; r >= 0 && runs.size() < k; r = runNext[r])
+        runs.add(toList(r));
+    }
+    return runs;
+  }
+
+  // Every player element seen by the index, in order of first
+  // appearance
+  public List<T> getPlayers()
+  {
+    List<T> players = new ArrayList<T>();
+    for(int s = 1; s <= symbols.size(); s++)
+      players.add(symbols.symbol(s));
+    return players;
+  }
+
+  private List<RowColElem<T>> toList(int r)
+  {
+    List<RowColElem<T>> seq = new ArrayList<RowColElem<T>>(runLen[r]);
+    T x = symbols.symbol(runSym[r]);
+    int d = runDir[r];
+    for(int i = 0; i < runLen[r]; i++)
+      seq.add(new RowColElem<T>(runRow[r] + i*DROW[d], runCol[r] + i*DCOL[d], x));
+    return seq;
+  }
+
+  // Index element x newly placed at row/col: in each direction merge
+  // it with the runs of x ending on either side of it.
+  //
+  // Complexity: O(1) expected
+  void add(int row, int col, T x)
+  {
+    int s = symbols.code(x);
+    if(s >= heads.length)
+    {
+      heads = Arrays.copyOf(heads, s*2);
+      maxLen = Arrays.copyOf(maxLen, s*2);
+    }
+    if(heads[s] == null)
+    {
+      heads[s] = new int[16];
+      Arrays.fill(heads[s], -1);
+    }
+    int rec = newRecord();
+    cellRecords.put(LongIntMap.cellKey(row, col), rec);
+    for(int d = 0; d < 4; d++)
+    {
+      long prevKey = LongIntMap.cellKey(row - DROW[d], col - DCOL[d]);
+      long nextKey = LongIntMap.cellKey(row + DROW[d], col + DCOL[d]);
+      int before = ends[d].get(prevKey);
+      int after = ends[d].get(nextKey);
+      if(before >= 0 && runSym[before] != s)
+        before = -1;
+      if(after >= 0 && runSym[after] != s)
+        after = -1;
+      int back = 0, fwd = 0;
+      if(before >= 0)
+      {
+        back = runLen[before];
+        ends[d].remove(prevKey);
+        unlink(before);
+      }
+      if(after >= 0)
+      {
+        fwd = runLen[after];
+        ends[d].remove(nextKey);
+        unlink(after);
+      }
+      records[8*rec + 2*d] = back;
+      records[8*rec + 2*d + 1] = fwd;
+      newRun(d, row - back*DROW[d], col - back*DCOL[d], back+fwd+1, s);
+    }
+  }
+
+  // Remove element x from row/col: in each direction split the run
+  // holding it into the parts before and after it.
+  //
+  // Complexity: O(1) expected when elements are removed in the reverse
+  // of the order they were added (as undoSet() does); O(L) otherwise
+  void remove(int row, int col, T x)
+  {
+    int s = symbols.lookup(x);
+    long key = LongIntMap.cellKey(row, col);
+    int rec = cellRecords.get(key);
+    if(s == 0 || rec < 0)
+      return;
+    cellRecords.remove(key);
+    for(int d = 0; d < 4; d++)
+    {
+      int back = records[8*rec + 2*d];
+      int fwd = records[8*rec + 2*d + 1];
+      int r = ends[d].get(LongIntMap.cellKey(row - back*DROW[d], col - back*DCOL[d]));
+      if(r < 0 || runLen[r] != back+fwd+1 || runSym[r] != s || runDir[r] != d)
+      {
+        //Run has changed since row/col was added; find it on the board
+        back = 0;
+        while(x.equals(board.get(row - (back+1)*DROW[d], col - (back+1)*DCOL[d])))
+          back++;
+        fwd = 0;
+        while(x.equals(board.get(row + (fwd+1)*DROW[d], col + (fwd+1)*DCOL[d])))
+          fwd++;
+        r = ends[d].get(LongIntMap.cellKey(row - back*DROW[d], col - back*DCOL[d]));
+      }
+      ends[d].remove(LongIntMap.cellKey(row - back*DROW[d], col - back*DCOL[d]));
+      ends[d].remove(LongIntMap.cellKey(row + fwd*DROW[d], col + fwd*DCOL[d]));
+      unlink(r);
+      if(back > 0)
+        newRun(d, row - back*DROW[d], col - back*DCOL[d], back, s);
+      if(fwd > 0)
+        newRun(d, row + DROW[d], col + DCOL[d], fwd, s);
+    }
+    records[8*rec] = freeRecord;
+    freeRecord = rec;
+  }
+
+  private int newRecord()
+  {
+    if(freeRecord >= 0)
+    {
+      int rec = freeRecord;
+      freeRecord = records[8*rec];
+      return rec;
+    }
+    if(8*(recordCount+1) > records.length)
+      records = Arrays.copyOf(records, records.length*2);
+    return recordCount++;
+  }
+
+  // Create a run, record both its ends and add it to its bucket
+  private void newRun(int d, int row, int col, int len, int s)
+  {
+    int r;
+    if(freeRun >= 0)
+    {
+      r = freeRun;
+      freeRun = runNext[r];
+    }
+    else
+    {
+      if(runCount == runDir.length)
+      {
+        int n = runCount*2;
+        runDir = Arrays.copyOf(runDir, n);
+        runRow = Arrays.copyOf(runRow, n);
+        runCol = Arrays.copyOf(runCol, n);
+        runLen = Arrays.copyOf(runLen, n);
+        runSym = Arrays.copyOf(runSym, n);
+        runPrev = Arrays.copyOf(runPrev, n);
+        runNext = Arrays.copyOf(runNext, n);
+      }
+      r = runCount++;
+    }
+    runDir[r] = d;
+    runRow[r] = row;
+    runCol[r] = col;
+    runLen[r] = len;
+    runSym[r] = s;
+    ends[d].put(LongIntMap.cellKey(row, col), r);
+    ends[d].put(LongIntMap.cellKey(row + (len-1)*DROW[d], col + (len-1)*DCOL[d]), r);
+
+    if(len >= heads[s].length)
+    {
+      int old = heads[s].length;
+      heads[s] = Arrays.copyOf(heads[s], Math.max(old*2, len+1));
+      Arrays.fill(heads[s], old, heads[s].length, -1);
+    }
+    runPrev[r] = -1;
+    runNext[r] = heads[s][len];
+    if(runNext[r] >= 0)
+      runPrev[runNext[r]] = r;
+    heads[s][len] = r;
+    if(len > maxLen[s])
+      maxLen[s] = len;
+  }
+
+  // Remove a run from its bucket and free its slot. The caller removes
+  // its ends from the end map.
+  private void unlink(int r)
+  {
+    int s = runSym[r];
+    int len = runLen[r];
+    if(runPrev[r] >= 0)
+      runNext[runPrev[r]] = runNext[r];
+    else
+      heads[s][len] = runNext[r];
+    if(runNext[r] >= 0)
+      runPrev[runNext[r]] = runPrev[r];
+    while(maxLen[s] > 0 && heads[s][maxLen[s]] < 0)
+      maxLen[s]--;
+    runNext[r] = freeRun;
+    freeRun = r;
+  }
+
+}
@@ -0,0 +1,151 @@
+import java.util.*;
+
+// Checks RunIndex against a brute-force scan of the board and
+// LongIntMap against a HashMap, run with: java RunIndexTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class RunIndexTest extends Checks
+{
+  // A run as its sorted cells, so runs compare whatever order they
+  // are listed in
+  static String key(List<RowColElem<String>> run)
+  {
+    List<String> cells = new ArrayList<String>();
+    for(RowColElem<String> e : run)
+      cells.add(e.getRow() + "," + e.getCol() + "," + e.getElem());
+    Collections.sort(cells);
+    return String.join(" ", cells);
+  }
+
+  // Every maximal run of player on the board, found by scanning each
+  // direction from the cells which start a run
+  static List<String> scan(ExpandableBoard<String> board, String player)
+  {
+    List<String> runs = new ArrayList<String>();
+    for(int r = board.getMinRow(); r <= board.getMaxRow(); r++)
+    {
+      for(int c = board.getMinCol(); c <= board.getMaxCol(); c++)
+      {
+        if(!board.get(r, c).equals(player))
+          continue;
+        for(int d = 0; d < 4; d++)
+        {
+          if(board.get(r - RunIndex.DROW[d], c - RunIndex.DCOL[d]).equals(player))
+            continue;
+          List<RowColElem<String>> run = new ArrayList<RowColElem<String>>();
+          for(int i = 0; board.get(r + i*RunIndex.DROW[d], c + i*RunIndex.DCOL[d]).equals(player); i++)
+            run.add(new RowColElem<String>(r + i*RunIndex.DROW[d], c + i*RunIndex.DCOL[d], player));
+          runs.add(key(run));
+        }
+      }
+    }
+    Collections.sort(runs);
+    return runs;
+  }
+
+  static int length(String run)
+  {
+    return run.split(" ").length;
+  }
+
+  // True if the index agrees with a scan of the board for player
+  static boolean agrees(RunIndex<String> index, ExpandableBoard<String> board, String player)
+  {
+    List<String> expected = scan(board, player);
+    List<String> runs = new ArrayList<String>();
+    for(List<RowColElem<String>> run : index.getRuns(player, 1))
+      runs.add(key(run));
+    List<String> sorted = new ArrayList<String>(runs);
+    Collections.sort(sorted);
+    if(!sorted.equals(expected))
+      return false;
+    for(int i = 1; i < runs.size(); i++)
+    {
+      if(length(runs.get(i)) > length(runs.get(i-1)))
+        return false; //Not longest first
+    }
+    int longest = expected.isEmpty() ? 0 : length(runs.get(0));
+    if(index.getLongestRunLength(player) != longest)
+      return false;
+    if(index.getLongestRun(player).size() != longest
+       || (longest > 0 && !expected.contains(key(index.getLongestRun(player)))))
+      return false;
+    List<List<RowColElem<String>>> top = index.getTopRuns(player, 3);
+    if(top.size() != Math.min(3, runs.size()))
+      return false;
+    for(int i = 0; i < top.size(); i++)
+    {
+      if(top.get(i).size() != length(runs.get(i)))
+        return false;
+    }
+    return true;
+  }
+
+  public static void main(String args[])
+  {
+    Random random = new Random(29);
+    int games = 200, differ = 0;
+    for(int g = 0; g < games; g++)
+    {
+      DenseBoard<String> board = new DenseBoard<String>(0, 3, 0, 3, ".");
+      RunIndex<String> index = new RunIndex<String>(board);
+      boolean same = true;
+      for(int move = 0; move < 60 && same; move++)
+      {
+        int op = random.nextInt(8);
+        try
+        {
+          if(op == 0)
+            board.undoSet();
+          else if(op == 1)
+            board.redoSet();
+          else
+          {
+            int row = random.nextInt(8), col = random.nextInt(8);
+            if(board.get(row, col).equals("."))
+              board.set(row, col, random.nextBoolean() ? "X" : "O");
+          }
+        }
+        catch(RuntimeException e)
+        {
+          continue; //Nothing to undo or redo
+        }
+        same = agrees(index, board, "X") && agrees(index, board, "O");
+      }
+      //An index built on a board in play matches one which followed it
+      RunIndex<String> fresh = new RunIndex<String>(board);
+      if(!same || !agrees(fresh, board, "X") || !agrees(fresh, board, "O"))
+        differ++;
+    }
+    check("runs match a scan of the board in " + games + " games", differ == 0);
+
+    //LongIntMap against a HashMap, with enough keys to rehash and
+    //collide
+    LongIntMap map = new LongIntMap();
+    HashMap<Long,Integer> reference = new HashMap<Long,Integer>();
+    boolean mapSame = true;
+    for(int i = 0; i < 200000 && mapSame; i++)
+    {
+      long k = LongIntMap.cellKey(random.nextInt(64) - 32, random.nextInt(64) - 32);
+      if(random.nextInt(3) == 0)
+      {
+        map.remove(k);
+        reference.remove(k);
+      }
+      else
+      {
+        int v = random.nextInt(1000);
+        map.put(k, v);
+        reference.put(k, v);
+      }
+      Integer expected = reference.get(k);
+      mapSame = map.size() == reference.size() && map.get(k) == (expected == null ? -1 : expected);
+    }
+    for(Map.Entry<Long,Integer> e : reference.entrySet())
+      mapSame &= map.get(e.getKey()) == e.getValue();
+    check("LongIntMap matches a HashMap", mapSame);
+
+    finish();
+  }
+
+}
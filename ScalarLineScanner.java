@@ -0,0 +1,116 @@
+import java.util.*;
+
+// LineScanner which walks the grid one cell at a time. Each run is
+// found from its first cell, the cell whose predecessor in the
+// direction holds a different code, and followed to its end. This is
+// the reference for BitLineScanner and the better choice for very
+// small grids.
+public class ScalarLineScanner implements LineScanner
+{
+  byte[] codes; //Row-major codes, 0 for empty
+  int rows, cols;
+
+  // Scan the rows x cols grid of codes in row-major order. The array
+  // is used directly, not copied.
+  public ScalarLineScanner(byte[] codes, int rows, int cols)
+  {
+    if(codes.length != rows*cols)
+      throw new RuntimeException("Expected " + rows*cols + " codes, got " + codes.length);
+    this.codes = codes;
+    this.rows = rows;
+    this.cols = cols;
+  }
+
+  public int getRows()
+  {
+    return rows;
+  }
+
+  public int getCols()
+  {
+    return cols;
+  }
+
+  // Code at row/col, 0 outside the grid
+  int at(int r, int c)
+  {
+    if(r < 0 || r >= rows || c < 0 || c >= cols)
+      return 0;
+    return codes[r*cols + c] & 0xff;
+  }
+
+  // Length of the run of code starting at r/c in direction d, 0 if r/c
+  // is not the first cell of such a run. Empty cells are not runs.
+  int runFrom(int code, int r, int c, int d)
+  {
+    int dr = DROW[d], dc = DCOL[d];
+    if(code == 0 || at(r, c) != code || at(r-dr, c-dc) == code)
+      return 0;
+    int len = 1;
+    while(at(r + len*dr, c + len*dc) == code)
+      len++;
+    return len;
+  }
+
+  // Complexity: O(R*C)
+  public int longestRun(int code)
+  {
+    int best = 0;
+    for(int d = 0; d < 4; d++)
+    {
+      for(int r = 0; r < rows; r++)
+      {
+        for(int c = 0; c < cols; c++)
+          best = Math.max(best, runFrom(code, r, c, d));
+      }
+    }
+    return best;
+  }
+
+  // Complexity: O(R*C)
+  public boolean hasRun(int code, int length)
+  {
+    return countRuns(code, length) > 0;
+  }
+
+  // Complexity: O(R*C)
+  public int countRuns(int code, int length)
+  {
+    if(length < 1)
+      throw new RuntimeException("Run length must be positive");
+    int n = 0;
+    for(int d = 0; d < 4; d++)
+    {
+      for(int r = 0; r < rows; r++)
+      {
+        for(int c = 0; c < cols; c++)
+        {
+          if(runFrom(code, r, c, d) >= length)
+            n++;
+        }
+      }
+    }
+    return n;
+  }
+
+  // Complexity: O(R*C)
+  public void countFeatures(int code, int maxLen, int[] out, int offset)
+  {
+    for(int d = 0; d < 4; d++)
+    {
+      int dr = DROW[d], dc = DCOL[d];
+      for(int r = 0; r < rows; r++)
+      {
+        for(int c = 0; c < cols; c++)
+        {
+          int len = runFrom(code, r, c, d);
+          if(len == 0)
+            continue;
+          int open = (at(r-dr, c-dc) == 0 ? 1 : 0) + (at(r + len*dr, c + len*dc) == 0 ? 1 : 0);
+          out[offset + (Math.min(len, maxLen)-1)*3 + open]++;
+        }
+      }
+    }
+  }
+
+}
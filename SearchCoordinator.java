@@ -0,0 +1,376 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+
+// Spreads an AlphaBetaSearch across several worker JVMs on the same
+// machine, so one search can use more memory and cores than a single
+// heap and collector manage well.
+//
+// Usage: java SearchCoordinator <workers> <depth> <width> [row col symbol]...
+//
+// The coordinator starts each SearchWorker with the same java binary
+// and class path it was started with, and they connect back to it
+// over loopback sockets (see SearchProtocol). A search splits the root
+// moves: the first, best-ordered move is searched on its own to get a
+// good bound, then the rest are handed out one at a time to whichever
+// worker is idle. Results come back as workers finish them; each one
+// that beats the best score so far becomes the new bound and is sent
+// to every worker, narrowing the searches they already have under
+// way. Without a cache the score found is the same as a single-process
+// search; among root moves with equal scores a different one may be
+// chosen. Workers given an AnalysisCache file all use it, so each
+// reuses positions the others, and earlier runs, have already
+// searched. As with any cached AlphaBetaSearch, a cached result may
+// come from a deeper search than the one asked for, so the score can
+// differ from an uncached search of the same depth and can depend on
+// what the cache held and on the order in which workers finished.
+//
+// Run from the command line, the position is given as row/col/symbol
+// triples with symbols X and O, X having moved first (a short opening
+// played by the evaluator when none is given). The search is run once
+// in this process and once across the workers, each after a warm-up
+// run, and the times, node counts and speedup are reported.
+public class SearchCoordinator implements Closeable
+{
+  static final int ACCEPT_TIMEOUT = 60000; //Milliseconds to wait for the workers to connect
+
+  // Connection to one worker
+  static class Link
+  {
+    Socket socket;
+    DataInputStream in;
+    DataOutputStream out;
+
+    Link(Socket socket) throws IOException
+    {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+  }
+
+  // A RESULT or ERROR from a worker, or the worker going away
+  static class Reply
+  {
+    Link link;
+    int job;
+    double score;
+    long nodes;
+    String error; //null for a result
+
+    Reply(Link link, int job, double score, long nodes, String error)
+    {
+      this.link = link;
+      this.job = job;
+      this.score = score;
+      this.nodes = nodes;
+      this.error = error;
+    }
+  }
+
+  Evaluator evaluator;
+  ServerSocket server;
+  List<Process> processes = new ArrayList<Process>();
+  List<Link> links = new CopyOnWriteArrayList<Link>(); //Live workers; a reader removes its link when the worker goes away
+  BlockingQueue<Reply> replies = new LinkedBlockingQueue<Reply>();
+  int searches, jobs; //Ids handed out so far
+
+  // Start workers worker processes and wait for them to connect.
+  // weights is a weights file for the evaluator, null for the default
+  // weights.
+  public SearchCoordinator(int workers, Path weights) throws IOException
+  {
+    this(workers, weights, null);
+  }
+
+  // As above, with the workers sharing an AnalysisCache in the file
+  // cache, created if need be; null for no cache
+  public SearchCoordinator(int workers, Path weights, Path cache) throws IOException
+  {
+    evaluator = weights == null ? new Evaluator() : Evaluator.load(weights);
+    server = new ServerSocket(0, workers, InetAddress.getLoopbackAddress());
+    server.setSoTimeout(ACCEPT_TIMEOUT);
+    try
+    {
+      if(cache != null)
+        AnalysisCache.open(cache, AnalysisCache.DEFAULT_MEGABYTES); //Create it once rather than in every worker
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+      for(int i = 0; i < workers; i++)
+      {
+        List<String> cmd = new ArrayList<String>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                                                               "SearchWorker", String.valueOf(server.getLocalPort())));
+        if(weights != null || cache != null)
+          cmd.add(weights == null ? "-" : weights.toAbsolutePath().toString());
+        if(cache != null)
+          cmd.add(cache.toAbsolutePath().toString());
+        processes.add(new ProcessBuilder(cmd).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                                             .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+      }
+      for(int i = 0; i < workers; i++)
+      {
+        Link link = new Link(server.accept());
+        links.add(link);
+        Thread reader = new Thread(() -> read(link), "SearchCoordinator-reader-" + i);
+        reader.setDaemon(true);
+        reader.start();
+      }
+    }
+    catch(IOException e)
+    {
+      close();
+      throw e;
+    }
+  }
+
+  // Pass the replies of one worker to the search. When the worker goes
+  // away its link is dropped, so later searches do not send it jobs.
+  void read(Link link)
+  {
+    try
+    {
+      for(DataInputStream m = SearchProtocol.receive(link.in); m != null; m = SearchProtocol.receive(link.in))
+      {
+        byte type = m.readByte();
+        if(type == SearchProtocol.RESULT)
+          replies.add(new Reply(link, m.readInt(), m.readDouble(), m.readLong(), null));
+        else if(type == SearchProtocol.ERROR)
+          replies.add(new Reply(link, m.readInt(), 0, 0, m.readUTF()));
+      }
+    }
+    catch(IOException e)
+    {
+      //Reported below as the worker going away
+    }
+    links.remove(link);
+    try
+    {
+      link.socket.close();
+    }
+    catch(IOException e)
+    {
+      //Already closed
+    }
+    replies.add(new Reply(link, -1, 0, 0, "Search worker exited"));
+  }
+
+  public int getWorkers()
+  {
+    return links.size();
+  }
+
+  // Search depth moves ahead from the position on board, player to
+  // move, using the workers, looking at the best width moves at each
+  // node; winLength is the run length which wins. Returns the best move
+  // with the total nodes visited by the workers. Generates a
+  // RuntimeException if a worker fails or exits while searching, or if
+  // no workers are left; jobs of the failed search still under way
+  // finish in the background and their replies are ignored by later
+  // searches. A worker which exits while idle is dropped and the
+  // search carries on with the rest.
+  public <T> AlphaBetaSearch.Result search(ExpandableBoard<T> board, T player, T opponent, int depth,
+                                           int width, int winLength) throws IOException, InterruptedException
+  {
+    AlphaBetaSearch local = new AlphaBetaSearch(evaluator, winLength, width);
+    List<int[]> moves = local.candidates(board, player);
+    if(moves.isEmpty())
+      return new AlphaBetaSearch.Result(0, 0, evaluator.evaluate(board, player), 0);
+
+    //The position, written once and copied into every JOB
+    ByteArrayOutputStream position = new ByteArrayOutputStream();
+    DataOutputStream p = new DataOutputStream(position);
+    T fill = board.getFillElem();
+    p.writeUTF(fill.toString());
+    p.writeUTF(player.toString());
+    p.writeUTF(opponent.toString());
+    List<RowColElem<T>> cells = new ArrayList<RowColElem<T>>();
+    for(int r = board.getMinRow(); r <= board.getMaxRow(); r++)
+    {
+      for(int c = board.getMinCol(); c <= board.getMaxCol(); c++)
+      {
+        if(!board.get(r, c).equals(fill))
+          cells.add(new RowColElem<T>(r, c, board.get(r, c)));
+      }
+    }
+    p.writeInt(cells.size());
+    for(RowColElem<T> e : cells)
+    {
+      p.writeInt(e.getRow());
+      p.writeInt(e.getCol());
+      p.writeUTF(e.getElem().toString());
+    }
+
+    int search = searches++;
+    Deque<int[]> pending = new ArrayDeque<int[]>(moves);
+    Map<Integer,int[]> running = new HashMap<Integer,int[]>(); //Job -> move
+    Deque<Link> idle = new ArrayDeque<Link>(links);
+    Set<Link> busy = new HashSet<Link>(); //Links with a job of this search
+    double alpha = -AlphaBetaSearch.INFINITY;
+    int[] best = null;
+    long nodes = 0;
+    boolean first = true;
+    while(!pending.isEmpty() || !running.isEmpty())
+    {
+      if(idle.isEmpty() && busy.isEmpty())
+        throw new RuntimeException("No search workers left");
+      //Young brothers wait: nothing else starts until the first move is done
+      while(!pending.isEmpty() && !idle.isEmpty() && (!first || running.isEmpty()))
+      {
+        int[] m = pending.poll();
+        int job = jobs++;
+        running.put(job, m);
+        Link l = idle.poll();
+        busy.add(l);
+        sendJob(l, search, job, depth, width, winLength, alpha, position, m);
+      }
+      Reply r = replies.take();
+      if(r.job < 0)
+      {
+        if(busy.contains(r.link))
+          throw new RuntimeException(r.error);
+        idle.remove(r.link); //Went away without a job of this search
+        continue;
+      }
+      int[] m = running.remove(r.job);
+      if(m == null)
+        continue; //Left over from an earlier search which failed; its link is already in idle
+      if(r.error != null)
+        throw new RuntimeException(r.error + " searching move " + m[0] + " " + m[1]);
+      busy.remove(r.link);
+      idle.add(r.link);
+      nodes += r.nodes;
+      first = false;
+      if(best == null || r.score > alpha)
+      {
+        best = m;
+        alpha = r.score;
+        for(Link l : busy)
+          sendBound(l, search, alpha);
+      }
+    }
+    return new AlphaBetaSearch.Result(best[0], best[1], alpha, nodes);
+  }
+
+  private void sendJob(Link link, int search, int job, int depth, int width, int winLength, double alpha,
+                       ByteArrayOutputStream position, int[] move) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(position.size() + 64);
+    DataOutputStream m = SearchProtocol.message(bytes, SearchProtocol.JOB);
+    m.writeInt(search);
+    m.writeInt(job);
+    m.writeInt(depth);
+    m.writeInt(width);
+    m.writeInt(winLength);
+    m.writeDouble(alpha);
+    m.writeDouble(AlphaBetaSearch.INFINITY);
+    position.writeTo(m);
+    m.writeInt(move[0]);
+    m.writeInt(move[1]);
+    SearchProtocol.send(link.out, bytes);
+  }
+
+  private void sendBound(Link link, int search, double alpha) throws IOException
+  {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream m = SearchProtocol.message(bytes, SearchProtocol.BOUND);
+    m.writeInt(search);
+    m.writeDouble(alpha);
+    SearchProtocol.send(link.out, bytes);
+  }
+
+  // Tell the workers to quit and wait briefly for them to do so,
+  // killing any that do not
+  public void close() throws IOException
+  {
+    for(Link l : links)
+    {
+      try
+      {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SearchProtocol.message(bytes, SearchProtocol.QUIT);
+        SearchProtocol.send(l.out, bytes);
+      }
+      catch(IOException e)
+      {
+        //Already gone
+      }
+    }
+    for(Process p : processes)
+    {
+      try
+      {
+        if(!p.waitFor(5, TimeUnit.SECONDS))
+          p.destroyForcibly();
+      }
+      catch(InterruptedException e)
+      {
+        p.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+    for(Link l : links)
+      l.socket.close();
+    server.close();
+  }
+
+  public static void main(String args[]) throws Exception
+  {
+    if(args.length < 3 || (args.length - 3) % 3 != 0)
+    {
+      System.err.println("usage: java SearchCoordinator <workers> <depth> <width> [row col symbol]...");
+      System.exit(1);
+    }
+    int workers = Integer.parseInt(args[0]);
+    int depth = Integer.parseInt(args[1]);
+    int width = Integer.parseInt(args[2]);
+    int winLength = 5;
+    Evaluator evaluator = new Evaluator();
+
+    DenseBoard<String> board = new DenseBoard<String>(".");
+    int xs = 0, os = 0;
+    for(int i = 3; i < args.length; i += 3)
+    {
+      board.set(Integer.parseInt(args[i]), Integer.parseInt(args[i+1]), args[i+2]);
+      if(args[i+2].equals("X"))
+        xs++;
+      else
+        os++;
+    }
+    if(args.length == 3)
+    {
+      //No position given: let the evaluator play a short opening
+      for(int ply = 0; ply < 8; ply++)
+      {
+        String p = ply % 2 == 0 ? "X" : "O";
+        Evaluator.Move m = evaluator.bestMove(board, p, Long.MAX_VALUE);
+        board.set(m.getRow(), m.getCol(), p);
+      }
+      xs = os = 4;
+    }
+    String player = xs > os ? "O" : "X", opponent = xs > os ? "X" : "O";
+    System.out.printf("%s\n%s to move, depth %d, width %d\n", board, player, depth, width);
+
+    AlphaBetaSearch single = new AlphaBetaSearch(evaluator, winLength, width);
+    single.search(board, player, opponent, depth);
+    long t0 = System.nanoTime();
+    AlphaBetaSearch.Result a = single.search(board, player, opponent, depth);
+    double serial = (System.nanoTime() - t0) / 1e9;
+    System.out.printf("Single process: %s, %d nodes in %.3fs\n", a, a.getNodes(), serial);
+
+    t0 = System.nanoTime();
+    try(SearchCoordinator coordinator = new SearchCoordinator(workers, null))
+    {
+      System.out.printf("Started %d workers in %.3fs\n", workers, (System.nanoTime() - t0) / 1e9);
+      coordinator.search(board, player, opponent, depth, width, winLength);
+      t0 = System.nanoTime();
+      AlphaBetaSearch.Result b = coordinator.search(board, player, opponent, depth, width, winLength);
+      double parallel = (System.nanoTime() - t0) / 1e9;
+      System.out.printf("%d workers: %s, %d nodes in %.3fs\n", workers, b, b.getNodes(), parallel);
+      System.out.printf("Speedup %.2fx on %d processors%s\n", serial / parallel, Runtime.getRuntime().availableProcessors(),
+                        a.getScore() == b.getScore() ? "" : "; SCORES DIFFER");
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+import java.util.*;
+import java.io.*;
+
+// Messages passed between a SearchCoordinator and its SearchWorker
+// processes over a local socket. Every message is a frame: an int
+// byte length followed by that many bytes, the first of which is the
+// message type. The rest of the frame is written with DataOutput:
+//
+//   JOB     search id int, job id int, depth int, width int,
+//           winLength int, alpha double, beta double, fill string,
+//           player string, opponent string, cell count int and
+//           (row int, col int, element string) per cell, then the
+//           row int and col int of the root move to search
+//   BOUND   search id int, alpha double
+//   RESULT  job id int, score double, nodes long
+//   ERROR   job id int, message string
+//   QUIT
+//
+// Strings are written with writeUTF(). The coordinator sends JOB,
+// BOUND and QUIT; workers send RESULT, or ERROR for a job that could
+// not be searched. A BOUND raises the root bound of any job of that
+// search under way.
+public class SearchProtocol
+{
+  static final byte JOB = 1, BOUND = 2, RESULT = 3, ERROR = 4, QUIT = 5;
+
+  // Start building a message of the given type; send it with send()
+  static DataOutputStream message(ByteArrayOutputStream bytes, byte type) throws IOException
+  {
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeByte(type);
+    return out;
+  }
+
+  // Write one frame holding the bytes of a message. Frames from several
+  // threads are not interleaved.
+  static void send(DataOutputStream out, ByteArrayOutputStream bytes) throws IOException
+  {
+    synchronized(out)
+    {
+      out.writeInt(bytes.size());
+      bytes.writeTo(out);
+      out.flush();
+    }
+  }
+
+  // Read one frame, returning a stream over its contents positioned at
+  // the type byte, or null at end of stream
+  static DataInputStream receive(DataInputStream in) throws IOException
+  {
+    int length;
+    try
+    {
+      length = in.readInt();
+    }
+    catch(EOFException e)
+    {
+      return null;
+    }
+    byte[] frame = new byte[length];
+    in.readFully(frame);
+    return new DataInputStream(new ByteArrayInputStream(frame));
+  }
+
+}
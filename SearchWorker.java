@@ -0,0 +1,193 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.net.*;
+import java.nio.file.*;
+
+// A worker process for SearchCoordinator: connects to the coordinator
+// on a local port and searches the root moves it is sent, one at a
+// time, on its own board.
+//
+// Usage: java SearchWorker <port> [weightsFile|-] [cacheFile]
+//
+// Workers are normally started by SearchCoordinator rather than by
+// hand. Given a cache file, searches keep their results in it as an
+// AnalysisCache, shared with the other workers and later runs.
+// Messages are read on the main thread and searches run on a second
+// thread, so a BOUND from the coordinator reaches a search while it is
+// under way. Jobs of the same search share one position, which is set
+// up on the board only once.
+public class SearchWorker
+{
+  Evaluator evaluator;
+  AnalysisCache cache; //null for none
+  DataOutputStream out;
+  ExecutorService runner = Executors.newSingleThreadExecutor();
+
+  //Searcher for the search whose jobs are arriving; BOUNDs for that
+  //search go to it
+  AlphaBetaSearch current;
+  int currentSearch = -1;
+
+  //Board holding the position of boardSearch, with the number of sets
+  //made for it; used only on the runner thread
+  DenseBoard<String> board;
+  int sets, boardSearch = -1;
+
+  SearchWorker(Evaluator evaluator, AnalysisCache cache, DataOutputStream out)
+  {
+    this.evaluator = evaluator;
+    this.cache = cache;
+    this.out = out;
+  }
+
+  public static void main(String args[]) throws Exception
+  {
+    if(args.length < 1)
+    {
+      System.err.println("usage: java SearchWorker <port> [weightsFile|-] [cacheFile]");
+      System.exit(1);
+    }
+    Evaluator evaluator = args.length > 1 && !args[1].equals("-") ? Evaluator.load(Paths.get(args[1])) : new Evaluator();
+    AnalysisCache cache = args.length > 2 ? AnalysisCache.open(Paths.get(args[2]), AnalysisCache.DEFAULT_MEGABYTES) : null;
+    try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0])))
+    {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      new SearchWorker(evaluator, cache, out).run(in);
+    }
+  }
+
+  // Handle messages until QUIT or the coordinator goes away
+  void run(DataInputStream in) throws IOException
+  {
+    try
+    {
+      for(DataInputStream m = SearchProtocol.receive(in); m != null; m = SearchProtocol.receive(in))
+      {
+        byte type = m.readByte();
+        if(type == SearchProtocol.QUIT)
+          break;
+        else if(type == SearchProtocol.BOUND)
+        {
+          int search = m.readInt();
+          double alpha = m.readDouble();
+          if(search == currentSearch)
+            current.raiseBound(alpha);
+        }
+        else if(type == SearchProtocol.JOB)
+        {
+          Job job = new Job(m);
+          if(job.search != currentSearch)
+          {
+            current = new AlphaBetaSearch(evaluator, job.winLength, job.width);
+            current.setCache(cache);
+            currentSearch = job.search;
+          }
+          AlphaBetaSearch searcher = current;
+          runner.submit(() -> runJob(job, searcher));
+        }
+        else
+          throw new IOException("Unexpected message type " + type);
+      }
+    }
+    finally
+    {
+      runner.shutdownNow();
+    }
+  }
+
+  // A root move to search, as read from a JOB message
+  static class Job
+  {
+    int search, id, depth, width, winLength;
+    double alpha, beta;
+    String fill, player, opponent;
+    int[] rows, cols;
+    String[] elems;
+    int row, col;
+
+    Job(DataInputStream m) throws IOException
+    {
+      search = m.readInt();
+      id = m.readInt();
+      depth = m.readInt();
+      width = m.readInt();
+      winLength = m.readInt();
+      alpha = m.readDouble();
+      beta = m.readDouble();
+      fill = m.readUTF();
+      player = m.readUTF();
+      opponent = m.readUTF();
+      int n = m.readInt();
+      rows = new int[n];
+      cols = new int[n];
+      elems = new String[n];
+      for(int i = 0; i < n; i++)
+      {
+        rows[i] = m.readInt();
+        cols[i] = m.readInt();
+        elems[i] = m.readUTF();
+      }
+      row = m.readInt();
+      col = m.readInt();
+    }
+  }
+
+  // Search one root move and send back its score or the error
+  void runJob(Job job, AlphaBetaSearch searcher)
+  {
+    try
+    {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try
+      {
+        setUp(job);
+        long before = searcher.getNodes();
+        double v = searcher.searchMove(board, job.player, job.opponent, job.row, job.col, job.depth, job.alpha, job.beta);
+        DataOutputStream m = SearchProtocol.message(bytes, SearchProtocol.RESULT);
+        m.writeInt(job.id);
+        m.writeDouble(v);
+        m.writeLong(searcher.getNodes() - before);
+      }
+      catch(RuntimeException e)
+      {
+        boardSearch = -1; //The board may be part way through a change
+        bytes.reset();
+        DataOutputStream m = SearchProtocol.message(bytes, SearchProtocol.ERROR);
+        m.writeInt(job.id);
+        m.writeUTF(String.valueOf(e.getMessage()));
+      }
+      SearchProtocol.send(out, bytes);
+    }
+    catch(IOException e)
+    {
+      System.err.println("SearchWorker: cannot reply to coordinator: " + e.getMessage());
+    }
+  }
+
+  // Put the position of job on the board unless it is already there,
+  // undoing the previous position and compacting the board first
+  void setUp(Job job)
+  {
+    if(job.search == boardSearch)
+      return;
+    if(board == null || boardSearch < 0 || !board.getFillElem().equals(job.fill))
+      board = new DenseBoard<String>(job.fill);
+    else
+    {
+      for(; sets > 0; sets--)
+        board.undoSet();
+      board.compact();
+    }
+    sets = 0;
+    for(int i = 0; i < job.rows.length; i++)
+    {
+      board.set(job.rows[i], job.cols[i], job.elems[i]);
+      sets++;
+    }
+    boardSearch = job.search;
+  }
+
+}
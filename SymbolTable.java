@@ -0,0 +1,80 @@
+import java.util.*;
+
+// Assigns small integer codes to the distinct elements placed on a
+// board so that boards can store cells as primitive codes rather than
+// references. Code 0 is reserved for empty cells; elements are given
+// codes 1,2,3,... in the order they are first seen.
+public class SymbolTable<T>
+{
+  private HashMap<T,Integer> codes = new HashMap<T,Integer>(); //Element -> code
+  private ArrayList<T> symbols = new ArrayList<T>(); //Code -> element, slot 0 unused
+  private int maxCode; //Largest code which may be handed out
+
+  // Create a table that can hand out codes 1..maxCode
+  public SymbolTable(int maxCode)
+  {
+    this.maxCode = maxCode;
+    symbols.add(null);
+  }
+
+  // Return the code for x, assigning the next free code if x has not
+  // been seen before. Generates a RuntimeException with the message
+  // "Too many distinct elements" when all codes are in use.
+  //
+  // Complexity: O(1)
+  public int code(T x)
+  {
+    Integer c = codes.get(x);
+    if(c != null)
+      return c;
+    if(symbols.size() > maxCode)
+      throw new RuntimeException("Too many distinct elements");
+    int next = symbols.size();
+    codes.put(x, next);
+    symbols.add(x);
+    return next;
+  }
+
+  // Give x the next free code even if it already has one, as when
+  // copying a table whose elements need not be distinct (lookup() and
+  // code() keep returning the first code x was given). Generates a
+  // RuntimeException with the message "Too many distinct elements"
+  // when all codes are in use.
+  //
+  // Complexity: O(1)
+  public int append(T x)
+  {
+    if(symbols.size() > maxCode)
+      throw new RuntimeException("Too many distinct elements");
+    int next = symbols.size();
+    codes.putIfAbsent(x, next);
+    symbols.add(x);
+    return next;
+  }
+
+  // Return the code for x or 0 if x has never been given a code
+  //
+  // Complexity: O(1)
+  public int lookup(T x)
+  {
+    Integer c = codes.get(x);
+    if(c == null)
+      return 0;
+    return c;
+  }
+
+  // Return the element with the given code; code 0 gives null
+  //
+  // Complexity: O(1)
+  public T symbol(int code)
+  {
+    return symbols.get(code);
+  }
+
+  // Number of codes handed out so far
+  public int size()
+  {
+    return symbols.size()-1;
+  }
+
+}
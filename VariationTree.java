@@ -0,0 +1,216 @@
+import java.util.*;
+
+// A tree of positions reached from a starting board, keeping every
+// variation explored rather than only the single line of undo/redo
+// history a board holds. Each node is the position after one more set
+// than its parent; the root is the board as it was when the tree was
+// created. Playing a move that already has a node reuses that node,
+// so sibling variations are kept side by side.
+//
+// The board always shows the current node. Moving to another node
+// undoes sets up to the common ancestor of the two nodes and replays
+// sets down to the target, which costs O(path length) board
+// operations rather than rebuilding the position from scratch. The
+// board must only be changed through the tree while the tree is in
+// use.
+//
+// Nodes are stored in parallel primitive arrays (28 bytes per node) so
+// trees of millions of nodes fit comfortably in memory. Nodes are
+// identified by int ids; the root is node 0.
+public class VariationTree<T>
+{
+  ExpandableBoard<T> board; //Board showing the current node
+  SymbolTable<T> symbols = new SymbolTable<T>(Integer.MAX_VALUE-1); //Element <-> code stored in nodes
+  int current; //Node shown on the board
+  int size; //Number of nodes
+
+  //Node fields: parent (-1 for root), move row/col/element code that
+  //leads to the node from its parent, depth below the root, first
+  //child and next sibling (-1 for none)
+  int[] parent = new int[64], row = new int[64], col = new int[64], code = new int[64];
+  int[] depth = new int[64], firstChild = new int[64], nextSibling = new int[64];
+
+  int[] path = new int[64]; //Scratch stack of nodes used by goTo()
+
+  // Create a tree whose root is the current state of the board
+  public VariationTree(ExpandableBoard<T> board)
+  {
+    this.board = board;
+    parent[0] = -1;
+    firstChild[0] = -1;
+    nextSibling[0] = -1;
+    size = 1;
+  }
+
+  // The root node, always 0
+  public int getRoot()
+  {
+    return 0;
+  }
+
+  // Node currently shown on the board
+  public int getCurrent()
+  {
+    return current;
+  }
+
+  // Number of nodes in the tree
+  public int size()
+  {
+    return size;
+  }
+
+  // Accessors for a node. The move fields of the root are meaningless.
+  //
+  // Target complexity: O(1)
+  public int getParent(int node)
+  {
+    return parent[node];
+  }
+
+  public int getFirstChild(int node)
+  {
+    return firstChild[node];
+  }
+
+  public int getNextSibling(int node)
+  {
+    return nextSibling[node];
+  }
+
+  public int getDepth(int node)
+  {
+    return depth[node];
+  }
+
+  public int getRow(int node)
+  {
+    return row[node];
+  }
+
+  public int getCol(int node)
+  {
+    return col[node];
+  }
+
+  public T getElem(int node)
+  {
+    return symbols.symbol(code[node]);
+  }
+
+  // Play x at row/col from the current node, moving to the child for
+  // that move, which is created if this is the first time the move has
+  // been played here. Returns the child. The board's rules apply: an
+  // element already set generates the board's RuntimeException and the
+  // tree is unchanged. Playing the fill element generates a
+  // RuntimeException with the message "Cannot play the fill element"
+  //
+  // Complexity: that of set() plus O(K)
+  //   K: number of children of the current node
+  public int play(int r, int c, T x)
+  {
+    if(x != null && x.equals(board.getFillElem()))
+      throw new RuntimeException("Cannot play the fill element");
+    board.set(r, c, x);
+    int k = symbols.code(x);
+    int child = firstChild[current];
+    while(child >= 0 && !(row[child] == r && col[child] == c && code[child] == k))
+      child = nextSibling[child];
+    if(child < 0)
+      child = newNode(current, r, c, k);
+    current = child;
+    return child;
+  }
+
+  private int newNode(int p, int r, int c, int k)
+  {
+    if(size == parent.length)
+    {
+      int n = size*2;
+      parent = Arrays.copyOf(parent, n);
+      row = Arrays.copyOf(row, n);
+      col = Arrays.copyOf(col, n);
+      code = Arrays.copyOf(code, n);
+      depth = Arrays.copyOf(depth, n);
+      firstChild = Arrays.copyOf(firstChild, n);
+      nextSibling = Arrays.copyOf(nextSibling, n);
+    }
+    int node = size++;
+    parent[node] = p;
+    row[node] = r;
+    col[node] = c;
+    code[node] = k;
+    depth[node] = depth[p]+1;
+    firstChild[node] = -1;
+    nextSibling[node] = firstChild[p];
+    firstChild[p] = node;
+    return node;
+  }
+
+  // Move the board to the position of the given node by undoing sets
+  // up to the common ancestor of the current node and the target and
+  // replaying sets down to the target.
+  //
+  // Complexity: O(P) board operations
+  //   P: length of the path between the two nodes
+  public void goTo(int node)
+  {
+    if(node < 0 || node >= size)
+      throw new RuntimeException("No such node " + node);
+    int a = current, b = node, n = 0;
+    while(depth[a] > depth[b])
+      a = parent[a];
+    while(depth[b] > depth[a])
+    {
+      push(n++, b);
+      b = parent[b];
+    }
+    while(a != b)
+    {
+      a = parent[a];
+      push(n++, b);
+      b = parent[b];
+    }
+    for(int up = depth[current] - depth[a]; up > 0; up--)
+      board.undoSet();
+    while(n > 0)
+    {
+      int step = path[--n];
+      board.set(row[step], col[step], symbols.symbol(code[step]));
+    }
+    current = node;
+  }
+
+  private void push(int i, int node)
+  {
+    if(i == path.length)
+      path = Arrays.copyOf(path, path.length*2);
+    path[i] = node;
+  }
+
+  // Move to the parent of the current node; no effect at the root
+  //
+  // Complexity: that of undoSet()
+  public void back()
+  {
+    if(current != 0)
+    {
+      board.undoSet();
+      current = parent[current];
+    }
+  }
+
+  // The moves leading from the root to a node as triples, root first
+  //
+  // Complexity: O(D)
+  //   D: depth of the node
+  public List< RowColElem<T> > getLine(int node)
+  {
+    ArrayList<RowColElem<T>> line = new ArrayList<RowColElem<T>>();
+    for(int n = node; n > 0; n = parent[n])
+      line.add(new RowColElem<T>(row[n], col[n], symbols.symbol(code[n])));
+    Collections.reverse(line);
+    return line;
+  }
+
+}
@@ -0,0 +1,93 @@
+import java.util.*;
+
+// Checks VariationTree against boards rebuilt from each node's line
+// of play, run with: java VariationTreeTest
+//
+// Prints a line per check and exits with status 1 if any fails.
+public class VariationTreeTest extends Checks
+{
+  // True if board shows the position reached by playing line with
+  // set() on a fresh board. Undone sets leave a board's extent grown,
+  // so cells are compared over the larger extent rather than the
+  // extents themselves.
+  static boolean shows(ExpandableBoard<String> board, List<RowColElem<String>> line)
+  {
+    DenseBoard<String> fresh = new DenseBoard<String>(0, 3, 0, 3, ".");
+    for(RowColElem<String> e : line)
+      fresh.set(e.getRow(), e.getCol(), e.getElem());
+    int minRow = Math.min(board.getMinRow(), fresh.getMinRow()), maxRow = Math.max(board.getMaxRow(), fresh.getMaxRow());
+    int minCol = Math.min(board.getMinCol(), fresh.getMinCol()), maxCol = Math.max(board.getMaxCol(), fresh.getMaxCol());
+    for(int r = minRow; r <= maxRow; r++)
+    {
+      for(int c = minCol; c <= maxCol; c++)
+      {
+        if(!board.get(r, c).equals(fresh.get(r, c)))
+          return false;
+      }
+    }
+    return board.getLongestSequence().equals(fresh.getLongestSequence());
+  }
+
+  public static void main(String args[])
+  {
+    Random random = new Random(32);
+    int trees = 100, differ = 0, reused = 0, maxSize = 0;
+    for(int t = 0; t < trees; t++)
+    {
+      DenseBoard<String> board = new DenseBoard<String>(0, 3, 0, 3, ".");
+      VariationTree<String> tree = new VariationTree<String>(board);
+      boolean same = true;
+      for(int op = 0; op < 300 && same; op++)
+      {
+        int kind = random.nextInt(10);
+        if(kind == 0)
+          tree.back();
+        else if(kind == 1)
+          tree.goTo(random.nextInt(tree.size()));
+        else
+        {
+          int row = random.nextInt(6) - 1, col = random.nextInt(6) - 1;
+          if(!board.get(row, col).equals("."))
+            continue;
+          int before = tree.size(), from = tree.getCurrent();
+          int child = tree.play(row, col, tree.getDepth(from) % 2 == 0 ? "X" : "O");
+          if(tree.size() == before)
+            reused++;
+          same = tree.getParent(child) == from && tree.getDepth(child) == tree.getDepth(from) + 1;
+        }
+        int node = tree.getCurrent();
+        same = same && tree.getLine(node).size() == tree.getDepth(node) && shows(board, tree.getLine(node));
+      }
+      if(!same)
+        differ++;
+      maxSize = Math.max(maxSize, tree.size());
+    }
+    check("board matches each node's line in " + trees + " trees", differ == 0);
+    check("replayed moves reuse their nodes", reused > 0);
+    check("trees grow past their initial arrays", maxSize > 64);
+
+    //Siblings are kept side by side
+    DenseBoard<String> board = new DenseBoard<String>(".");
+    VariationTree<String> tree = new VariationTree<String>(board);
+    int a = tree.play(0, 0, "X");
+    tree.back();
+    int b = tree.play(0, 1, "X");
+    tree.goTo(a);
+    check("sibling variations are kept",
+          tree.getFirstChild(0) == b && tree.getNextSibling(b) == a && board.get(0, 0).equals("X") && board.get(0, 1).equals("."));
+
+    boolean threw = false;
+    try
+    {
+      tree.play(5, 5, ".");
+    }
+    catch(RuntimeException e)
+    {
+      threw = e.getMessage().equals("Cannot play the fill element");
+    }
+    check("playing the fill element throws", threw && tree.getCurrent() == a);
+
+    finish();
+  }
+
+}
@@ -0,0 +1,275 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.nio.file.*;
+
+// Tunes Evaluator weights from self-play.
+//
+// Usage: java WeightTuner <games> <outputWeights> [threads] [epochs] [initialWeights]
+//
+// Games are played on DenseBoards by the evaluator against itself, one
+// batch of games per thread. Each game starts from a few random
+// elements near 0,0 and a small fraction of later moves are random so
+// the games differ. After every move the features of the position are
+// recorded from the point of view of the player who just moved, which
+// is how Evaluator.bestMove() scores candidate moves, labelled with how
+// the game ended for that player: 1 for a win, 0 for a loss, 1/2 if
+// the game hit the move limit.
+//
+// The weights are then fitted by logistic regression of the labels
+// on the evaluator's score (Texel tuning): the predicted result of a
+// position is sigmoid(score / SCALE) and the cross-entropy loss is
+// minimised by full-batch gradient descent with Adam step sizes. A
+// weak Gaussian prior pulls each weight towards its starting value so
+// that features which self-play rarely produces (such as an opponent
+// four left unblocked) keep their hand-picked weight.
+// Gradients are summed over the positions in parallel on the common
+// fork-join pool. Features are kept in one flat short array so millions
+// of positions fit in memory. The tuned weights are written in the
+// format read by Evaluator.load().
+public class WeightTuner
+{
+  static final int WIN_LENGTH = 5; //Sequence length that wins a self-play game
+  static final int MAX_MOVES = 120; //Games this long are drawn
+  static final int OPENING_MOVES = 3; //Random elements each game starts from
+  static final double EXPLORE = 0.05; //Fraction of moves played at random
+  static final double SCALE = 400; //Score at which the predicted result is sigmoid(1)
+  static final double PRIOR = 1e-7; //Strength of the pull back towards the starting weights
+  static final int GRAIN = 4096; //Positions per leaf of the gradient computation
+
+  // Positions and labels collected from self-play. Features of position
+  // i are features[i*FEATURES .. (i+1)*FEATURES).
+  static class Samples
+  {
+    short[] features = new short[1024*Evaluator.FEATURES];
+    float[] labels = new float[1024];
+    int size;
+
+    void add(int[] f, float label)
+    {
+      if(size == labels.length)
+      {
+        labels = Arrays.copyOf(labels, size*2);
+        features = Arrays.copyOf(features, size*2*Evaluator.FEATURES);
+      }
+      for(int i = 0; i < Evaluator.FEATURES; i++)
+        features[size*Evaluator.FEATURES + i] = (short) Math.min(f[i], Short.MAX_VALUE);
+      labels[size++] = label;
+    }
+
+    void addAll(Samples s)
+    {
+      int n = size + s.size;
+      if(n > labels.length)
+      {
+        labels = Arrays.copyOf(labels, n);
+        features = Arrays.copyOf(features, n*Evaluator.FEATURES);
+      }
+      System.arraycopy(s.labels, 0, labels, size, s.size);
+      System.arraycopy(s.features, 0, features, size*Evaluator.FEATURES, s.size*Evaluator.FEATURES);
+      size = n;
+    }
+  }
+
+  public static void main(String args[]) throws Exception
+  {
+    if(args.length < 2)
+    {
+      System.err.println("usage: java WeightTuner <games> <outputWeights> [threads] [epochs] [initialWeights]");
+      System.exit(1);
+    }
+    int games = Integer.parseInt(args[0]);
+    if(games < 1)
+    {
+      System.err.println("WeightTuner: games must be at least 1");
+      System.exit(1);
+    }
+    Path output = Paths.get(args[1]);
+    int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int epochs = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+    Evaluator start = args.length > 4 ? Evaluator.load(Paths.get(args[4])) : new Evaluator();
+
+    long t0 = System.nanoTime();
+    Samples samples = selfPlay(start, games, threads, 1);
+    long t1 = System.nanoTime();
+    System.err.printf("Generated %d positions from %d games in %.1fs\n", samples.size, games, (t1-t0)/1e9);
+
+    double[] w = start.getWeights();
+    System.err.printf("Initial loss %.5f\n", loss(samples, w));
+    w = fit(samples, w, epochs);
+    System.err.printf("Tuned loss %.5f after %d epochs in %.1fs\n", loss(samples, w), epochs, (System.nanoTime()-t1)/1e9);
+    new Evaluator(w).save(output);
+  }
+
+  // Play games between two copies of the evaluator on all threads and
+  // collect the labelled positions
+  public static Samples selfPlay(Evaluator evaluator, int games, int threads, long seed) throws Exception
+  {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try
+    {
+      List<Future<Samples>> parts = new ArrayList<Future<Samples>>();
+      for(int t = 0; t < threads; t++)
+      {
+        int first = t;
+        parts.add(pool.submit(() -> {
+          Samples s = new Samples();
+          for(int g = first; g < games; g += threads)
+            playGame(evaluator, new SplittableRandom(seed * 1000003 + g), s);
+          return s;
+        }));
+      }
+      Samples all = new Samples();
+      for(Future<Samples> f : parts)
+        all.addAll(f.get());
+      return all;
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+  }
+
+  // Play one game, adding its positions to samples
+  static void playGame(Evaluator evaluator, SplittableRandom rnd, Samples samples)
+  {
+    String[] players = {"X", "O"};
+    DenseBoard<String> board = new DenseBoard<String>(".");
+    int[][] seen = new int[MAX_MOVES][];
+    int[] movers = new int[MAX_MOVES];
+    int n = 0, winner = -1;
+    for(int ply = 0; ply < MAX_MOVES; ply++)
+    {
+      int p = ply % 2;
+      int row, col;
+      if(ply < OPENING_MOVES || rnd.nextDouble() < EXPLORE)
+      {
+        int spread = ply < OPENING_MOVES ? 2 : 1;
+        do
+        {
+          row = rnd.nextInt(board.getMinRow()-spread, board.getMaxRow()+spread+1);
+          col = rnd.nextInt(board.getMinCol()-spread, board.getMaxCol()+spread+1);
+        }
+        while(!board.get(row, col).equals("."));
+      }
+      else
+      {
+        Evaluator.Move m = evaluator.bestMove(board, players[p], Long.MAX_VALUE);
+        row = m.getRow();
+        col = m.getCol();
+      }
+      board.set(row, col, players[p]);
+      int[] f = new int[Evaluator.FEATURES];
+      Evaluator.features(board, players[p], f);
+      seen[n] = f;
+      movers[n++] = p;
+      if(board.getLongestSequence().size() >= WIN_LENGTH)
+      {
+        winner = p;
+        break;
+      }
+    }
+    for(int i = 0; i < n; i++)
+      samples.add(seen[i], winner < 0 ? 0.5f : (movers[i] == winner ? 1f : 0f));
+  }
+
+  static double sigmoid(double x)
+  {
+    return 1 / (1 + Math.exp(-x));
+  }
+
+  // Sums the loss and its gradient over positions [lo,hi), returning
+  // {gradient..., loss}
+  static class Gradient extends RecursiveTask<double[]>
+  {
+    private static final long serialVersionUID = 1L;
+
+    Samples s;
+    double[] w;
+    int lo, hi;
+
+    Gradient(Samples s, double[] w, int lo, int hi)
+    {
+      this.s = s;
+      this.w = w;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    protected double[] compute()
+    {
+      if(hi - lo > GRAIN)
+      {
+        int mid = (lo + hi) >>> 1;
+        Gradient left = new Gradient(s, w, lo, mid);
+        left.fork();
+        double[] g = new Gradient(s, w, mid, hi).compute();
+        double[] h = left.join();
+        for(int i = 0; i < g.length; i++)
+          g[i] += h[i];
+        return g;
+      }
+      int nf = Evaluator.FEATURES;
+      double[] g = new double[nf+1];
+      for(int j = lo; j < hi; j++)
+      {
+        int base = j*nf;
+        double score = 0;
+        for(int i = 0; i < nf; i++)
+          score += w[i] * s.features[base+i];
+        double p = sigmoid(score / SCALE);
+        double y = s.labels[j];
+        double err = (p - y) / SCALE;
+        for(int i = 0; i < nf; i++)
+          g[i] += err * s.features[base+i];
+        p = Math.min(Math.max(p, 1e-12), 1 - 1e-12);
+        g[nf] -= y * Math.log(p) + (1 - y) * Math.log(1 - p);
+      }
+      return g;
+    }
+  }
+
+  // Mean cross-entropy loss of weights w over the samples. There must
+  // be at least one sample or a RuntimeException with the message "No
+  // samples to fit" is generated.
+  public static double loss(Samples s, double[] w)
+  {
+    checkSamples(s);
+    return ForkJoinPool.commonPool().invoke(new Gradient(s, w, 0, s.size))[Evaluator.FEATURES] / s.size;
+  }
+
+  // Fit weights starting from w by full-batch gradient descent with
+  // Adam step sizes, returning the new weights. There must be at
+  // least one sample, as for loss().
+  public static double[] fit(Samples s, double[] w, int epochs)
+  {
+    checkSamples(s);
+    int nf = Evaluator.FEATURES;
+    double rate = 20, beta1 = 0.9, beta2 = 0.999;
+    double[] m = new double[nf], v = new double[nf];
+    double[] w0 = w;
+    w = w.clone();
+    for(int e = 1; e <= epochs; e++)
+    {
+      double[] g = ForkJoinPool.commonPool().invoke(new Gradient(s, w, 0, s.size));
+      for(int i = 0; i < nf; i++)
+      {
+        double gi = g[i] / s.size + PRIOR * (w[i] - w0[i]);
+        m[i] = beta1*m[i] + (1-beta1)*gi;
+        v[i] = beta2*v[i] + (1-beta2)*gi*gi;
+        double mHat = m[i] / (1 - Math.pow(beta1, e));
+        double vHat = v[i] / (1 - Math.pow(beta2, e));
+        w[i] -= rate * mHat / (Math.sqrt(vHat) + 1e-12);
+      }
+    }
+    return w;
+  }
+
+  // The loss and gradients are means over the samples, so an empty
+  // set would give NaN weights which Evaluator.load() cannot tell apart
+  private static void checkSamples(Samples s)
+  {
+    if(s.size == 0)
+      throw new RuntimeException("No samples to fit");
+  }
+
+}